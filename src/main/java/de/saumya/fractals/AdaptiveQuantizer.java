@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+/**
+ * picks the best quantizer which fits into a time budget per frame, from
+ * NeuQuant over median cut down to a sampling octree. the cost per pixel of
+ * each quantizer is measured on the frames it quantizes, and each frame goes
+ * to the best one whose measured cost for the size of the frame fits into the
+ * budget. quantizers not measured yet are tried, and every so many frames the
+ * next better one is measured again, so a slow first frame does not rule it
+ * out for good.
+ * <p>
+ * as the choice depends on timing, the output is not reproducible.
+ */
+public class AdaptiveQuantizer implements ColorQuantizer {
+
+    private static final int           PROBE      = 32;
+
+    private final ColorQuantizer[]     quantizers = { new NeuQuantizer(),
+            new MedianCutQuantizer(), new OctreeQuantizer() };
+
+    private final long                 budget;
+
+    /** measured nanoseconds per pixel, 0 if not measured */
+    private final double[]             costs      = new double[3];
+
+    private int                        frames;
+
+    /**
+     * @param millis
+     *            time budget for quantizing one frame.
+     */
+    public AdaptiveQuantizer(final long millis) {
+        this.budget = millis * 1000000;
+    }
+
+    public byte[] quantize(final byte[] pixels, final byte[] indexed,
+            final int quality) {
+        final int level = choose(indexed.length);
+        final long start = System.nanoTime();
+        final byte[] colorTab = this.quantizers[level].quantize(pixels,
+                                                               indexed,
+                                                               quality);
+        measured(level, (double) (System.nanoTime() - start) / indexed.length);
+        return colorTab;
+    }
+
+    private synchronized int choose(final int size) {
+        final int last = this.quantizers.length - 1;
+        int level = 0;
+        while ((level < last) && (this.costs[level] * size > this.budget)) {
+            level++;
+        }
+        if ((level > 0) && (++this.frames % PROBE == 0)) {
+            level--;
+        }
+        return level;
+    }
+
+    private synchronized void measured(final int level, final double cost) {
+        // smooth over the last few frames
+        this.costs[level] = this.costs[level] == 0
+                ? cost
+                : (3 * this.costs[level] + cost) / 4;
+    }
+}
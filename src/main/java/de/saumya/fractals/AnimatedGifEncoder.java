@@ -8,6 +8,7 @@ import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 //from http://www.java2s.com/Code/Java/2D-Graphics-GUI/AnimatedGifEncoder.htm
 
@@ -56,6 +57,9 @@ public class AnimatedGifEncoder {
 
     protected OutputStream  out;
 
+    protected LZWEncoder    lzwEncoder;                    // reused for
+    // all frames
+
     protected BufferedImage image;                         // current frame
 
     protected byte[]        pixels;                        // BGR byte array
@@ -93,6 +97,79 @@ public class AnimatedGifEncoder {
     // interval for
     // quantizer
 
+    protected ColorQuantizer quantizer = new NeuQuantizer(); // for frames
+    // with many colors
+
+    protected int[]         palette;                       // fixed global
+    // palette if given
+
+    protected byte[]        globalTab;                     // global color
+    // table frames
+    // may reuse
+
+    protected ColorIndex    globalIndex;                   // RGB to index
+    // in globalTab
+
+    protected int           globalDepth;                   // bit planes of
+    // globalTab
+
+    protected boolean       localTab;                      // frame has its
+    // own color table
+
+    protected boolean       delta       = false;           // encode changes
+    // only
+
+    protected byte[]        previous;                      // BGR byte array
+    // of previous frame
+
+    protected byte[]        spare;                         // BGR byte array
+    // for int[] frames
+
+    protected int           imageX, imageY;                // position and
+
+    protected int           imageWidth, imageHeight;       // size of the
+    // written image
+
+    protected boolean       deltaFrame;                    // unchanged
+    // pixels are
+    // transparent
+
+    public AnimatedGifEncoder() {
+    }
+
+    /**
+     * Creates an encoder for the next frame of the given encoder, with its
+     * settings and global color table, writing to the given stream. Used to
+     * encode frames independently of each other.
+     * 
+     * @param encoder
+     *            AnimatedGifEncoder whose next frame is encoded.
+     * @param os
+     *            OutputStream for the encoded frame.
+     */
+    protected AnimatedGifEncoder(final AnimatedGifEncoder encoder,
+            final OutputStream os) {
+        this.width = encoder.width;
+        this.height = encoder.height;
+        this.transparent = encoder.transparent;
+        this.repeat = encoder.repeat;
+        this.delay = encoder.delay;
+        this.dispose = encoder.dispose;
+        this.sample = encoder.sample;
+        this.quantizer = encoder.quantizer;
+        this.palette = encoder.palette;
+        this.globalTab = encoder.globalTab;
+        this.globalIndex = encoder.globalIndex == null
+                ? null
+                : encoder.globalIndex.copy();
+        this.globalDepth = encoder.globalDepth;
+        this.firstFrame = encoder.firstFrame;
+        this.delta = encoder.delta;
+        this.sizeSet = true;
+        this.started = true;
+        this.out = os;
+    }
+
     /**
      * Sets the delay time between each frame, or changes it for subsequent
      * frames (applies to last frame added).
@@ -147,6 +224,44 @@ public class AnimatedGifEncoder {
         this.transparent = c;
     }
 
+    /**
+     * Sets a fixed palette of at most 256 RGB colors, the alpha is ignored.
+     * It is written once as global color table and all frames are mapped to
+     * it without quantization, pixels not in the palette get the closest
+     * color. Must be invoked before the first image is added, null goes back
+     * to a color table per frame.
+     * 
+     * @param rgb
+     *            int[] colors, duplicates are allowed.
+     */
+    public void setPalette(final int[] rgb) {
+        if (rgb != null) {
+            final ColorIndex index = new ColorIndex();
+            for (final int color : rgb) {
+                if (index.get(color & 0xffffff) < 0) {
+                    if (index.size() == 256) {
+                        throw new IllegalArgumentException("more than 256 colors");
+                    }
+                    index.put(color & 0xffffff, index.size());
+                }
+            }
+        }
+        this.palette = rgb;
+    }
+
+    /**
+     * Sets whether frames are written as changes to the previous frame: only
+     * the bounding box of the changed pixels is written, with the unchanged
+     * pixels inside it transparent, and the previous frame stays in place.
+     * Has no effect on frames with a transparent color or a disposal code.
+     * 
+     * @param delta
+     *            true to write changes only.
+     */
+    public void setDelta(final boolean delta) {
+        this.delta = delta;
+    }
+
     /**
      * Adds next GIF frame. The frame is not written immediately, but is
      * actually deferred until the next frame is received so that timing data
@@ -170,22 +285,41 @@ public class AnimatedGifEncoder {
             }
             this.image = im;
             getImagePixels(); // convert to correct format if necessary
-            analyzePixels(); // build color table & map pixels
-            if (this.firstFrame) {
-                writeLSD(); // logical screen descriptior
-                writePalette(); // global color table
-                if (this.repeat >= 0) {
-                    // use NS app extension to indicate reps
-                    writeNetscapeExt();
-                }
-            }
-            writeGraphicCtrlExt(); // write graphic control extension
-            writeImageDesc(); // image descriptor
-            if (!this.firstFrame) {
-                writePalette(); // local color table
+            writeFrame();
+        }
+        catch (final IOException e) {
+            ok = false;
+        }
+
+        return ok;
+    }
+
+    /**
+     * Adds next GIF frame given as ARGB pixels, row by row, like
+     * <code>addFrame(BufferedImage)</code> but without going through an image.
+     * The pixels are converted into a buffer which is reused for the frames
+     * to come.
+     * 
+     * @param argb
+     *            int[] pixels of the frame.
+     * @param w
+     *            int width of the frame.
+     * @param h
+     *            int height of the frame.
+     * @return true if successful.
+     */
+    public boolean addFrame(final int[] argb, final int w, final int h) {
+        if ((argb == null) || !this.started) {
+            return false;
+        }
+        boolean ok = true;
+        try {
+            if (!this.sizeSet) {
+                // use first frame's size
+                setSize(w, h);
             }
-            writePixels(); // encode and write pixel data
-            this.firstFrame = false;
+            getImagePixels(argb, w, h);
+            writeFrame();
         }
         catch (final IOException e) {
             ok = false;
@@ -194,6 +328,45 @@ public class AnimatedGifEncoder {
         return ok;
     }
 
+    /**
+     * Writes the frame in "pixels"
+     */
+    protected void writeFrame() throws IOException {
+        final byte[] frame = this.pixels;
+        this.imageX = 0;
+        this.imageY = 0;
+        this.imageWidth = this.width;
+        this.imageHeight = this.height;
+        this.transIndex = 0;
+        this.deltaFrame = this.delta && (this.previous != null)
+                && (this.transparent == null) && (this.dispose < 0);
+        if (this.deltaFrame) {
+            cropPixels(); // bounding box of the changes
+        }
+        analyzePixels(); // build color table & map pixels
+        if (this.deltaFrame) {
+            maskPixels(frame); // unchanged pixels transparent
+        }
+        if (this.delta) {
+            setPrevious(frame);
+        }
+        if (this.firstFrame) {
+            writeLSD(); // logical screen descriptior
+            writePalette(); // global color table
+            if (this.repeat >= 0) {
+                // use NS app extension to indicate reps
+                writeNetscapeExt();
+            }
+        }
+        writeGraphicCtrlExt(); // write graphic control extension
+        writeImageDesc(); // image descriptor
+        if (this.localTab) {
+            writePalette(); // local color table
+        }
+        writePixels(); // encode and write pixel data
+        this.firstFrame = false;
+    }
+
     /**
      * Flushes any pending data and closes output file. If writing to an
      * OutputStream, the stream is not closed.
@@ -223,6 +396,10 @@ public class AnimatedGifEncoder {
         this.pixels = null;
         this.indexedPixels = null;
         this.colorTab = null;
+        this.previous = null;
+        this.spare = null;
+        this.globalTab = null;
+        this.globalIndex = null;
         this.closeStream = false;
         this.firstFrame = true;
 
@@ -260,6 +437,22 @@ public class AnimatedGifEncoder {
         this.sample = quality;
     }
 
+    /**
+     * Sets the quantizer for frames with more than 256 colors. The default
+     * is the {@link NeuQuantizer}, {@link MedianCutQuantizer} and
+     * {@link OctreeQuantizer} are faster, and an {@link AdaptiveQuantizer}
+     * picks between them by a time budget per frame. The sample interval of
+     * <code>setQuality</code> applies to all of them.
+     * 
+     * @param q
+     *            ColorQuantizer to use.
+     */
+    public void setQuantizer(final ColorQuantizer q) {
+        if (q != null) {
+            this.quantizer = q;
+        }
+    }
+
     /**
      * Sets the GIF frame size. The default size is the size of the first frame
      * added if this method is not invoked.
@@ -329,38 +522,296 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Analyzes image colors and creates color map.
+     * Analyzes image colors and creates color map. Frames are mapped to the
+     * global color table if all their colors are in it, a fixed palette
+     * always is. Otherwise frames with at most 256 colors get a table of
+     * exactly their colors and only the others are quantized.
      */
     protected void analyzePixels() {
         final int len = this.pixels.length;
         final int nPix = len / 3;
         this.indexedPixels = new byte[nPix];
-        final NeuQuant nq = new NeuQuant(this.pixels, len, this.sample);
-        // initialize quantizer
-        this.colorTab = nq.process(); // create reduced palette
-        // convert map from BGR to RGB
-        for (int i = 0; i < this.colorTab.length; i += 3) {
-            final byte temp = this.colorTab[i];
-            this.colorTab[i] = this.colorTab[i + 2];
-            this.colorTab[i + 2] = temp;
-            this.usedEntry[i / 3] = false;
-        }
-        // map image pixels to new palette
+        if (this.firstFrame && this.palette != null) {
+            this.globalTab = new byte[3 * 256];
+            this.globalIndex = new ColorIndex();
+            for (final int color : this.palette) {
+                final int rgb = color & 0xffffff;
+                if (this.globalIndex.get(rgb) < 0) {
+                    final int i = 3 * this.globalIndex.size();
+                    this.globalTab[i] = (byte) (rgb >> 16);
+                    this.globalTab[i + 1] = (byte) (rgb >> 8);
+                    this.globalTab[i + 2] = (byte) rgb;
+                    this.globalIndex.put(rgb, this.globalIndex.size());
+                }
+            }
+            this.globalTab = Arrays.copyOf(this.globalTab,
+                                           3 * this.globalIndex.size());
+            this.globalDepth = depth(this.globalIndex.size());
+        }
+        if (this.globalIndex != null
+                && mapPixels(this.globalIndex, this.palette != null)) {
+            this.colorTab = this.globalTab;
+            this.colorDepth = this.globalDepth;
+            this.localTab = false;
+        }
+        else {
+            final ColorIndex colors = new ColorIndex();
+            if (mapPixels(colors)) {
+                if (this.firstFrame) {
+                    this.globalTab = this.colorTab;
+                    this.globalIndex = colors;
+                    this.globalDepth = this.colorDepth;
+                }
+            }
+            else {
+                quantize();
+            }
+            this.localTab = !this.firstFrame;
+        }
+        this.palSize = this.colorDepth - 1;
+        this.pixels = null;
+        // get closest match to transparent color if specified
+        if (this.transparent != null) {
+            this.transIndex = findClosest(this.transparent);
+        }
+    }
+
+    /**
+     * Maps the pixels through the RGB index of the global color table. Colors
+     * not in the table are mapped to the closest entry, which is remembered,
+     * if closest is set, otherwise the mapping fails.
+     * 
+     * @return false if a color is not in the table.
+     */
+    protected boolean mapPixels(final ColorIndex colors, final boolean closest) {
+        Arrays.fill(this.usedEntry, false);
+        final int nPix = this.indexedPixels.length;
         int k = 0;
         for (int i = 0; i < nPix; i++) {
-            final int index = nq.map(this.pixels[k++] & 0xff,
-                                     this.pixels[k++] & 0xff,
-                                     this.pixels[k++] & 0xff);
+            final int b = this.pixels[k++] & 0xff;
+            final int g = this.pixels[k++] & 0xff;
+            final int r = this.pixels[k++] & 0xff;
+            final int rgb = (r << 16) | (g << 8) | b;
+            int index = colors.get(rgb);
+            if (index < 0) {
+                if (!closest) {
+                    return false;
+                }
+                index = closest(this.globalTab, r, g, b);
+                colors.put(rgb, index);
+            }
             this.usedEntry[index] = true;
             this.indexedPixels[i] = (byte) index;
         }
+        return true;
+    }
+
+    /**
+     * Builds a color table of the exact colors of the frame while mapping the
+     * pixels, collecting the colors in the given empty index.
+     * 
+     * @return false if the frame has more than 256 colors.
+     */
+    protected boolean mapPixels(final ColorIndex colors) {
+        Arrays.fill(this.usedEntry, false);
+        final byte[] tab = new byte[3 * 256];
+        final int nPix = this.indexedPixels.length;
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            final int b = this.pixels[k++] & 0xff;
+            final int g = this.pixels[k++] & 0xff;
+            final int r = this.pixels[k++] & 0xff;
+            final int rgb = (r << 16) | (g << 8) | b;
+            int index = colors.get(rgb);
+            if (index < 0) {
+                index = colors.size();
+                if (index == 256) {
+                    return false;
+                }
+                tab[3 * index] = (byte) r;
+                tab[3 * index + 1] = (byte) g;
+                tab[3 * index + 2] = (byte) b;
+                colors.put(rgb, index);
+                this.usedEntry[index] = true;
+            }
+            this.indexedPixels[i] = (byte) index;
+        }
+        this.colorTab = Arrays.copyOf(tab, 3 * colors.size());
+        this.colorDepth = depth(colors.size());
+        return true;
+    }
+
+    /**
+     * Creates a reduced palette with the quantizer and maps the pixels to it.
+     */
+    protected void quantize() {
+        this.colorTab = this.quantizer.quantize(this.pixels,
+                                                this.indexedPixels,
+                                                this.sample);
+        Arrays.fill(this.usedEntry, false);
+        for (final byte index : this.indexedPixels) {
+            this.usedEntry[index & 0xff] = true;
+        }
+        this.colorDepth = depth(this.colorTab.length / 3);
+    }
+
+    /**
+     * Returns the number of bit planes of a color table with size colors
+     */
+    protected static int depth(final int size) {
+        int depth = 1;
+        while ((1 << depth) < size) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns index of the color of tab closest to r, g, b
+     */
+    protected static int closest(final byte[] tab, final int r, final int g,
+            final int b) {
+        int minpos = 0;
+        int dmin = Integer.MAX_VALUE;
+        for (int i = 0; i < tab.length; i += 3) {
+            final int dr = r - (tab[i] & 0xff);
+            final int dg = g - (tab[i + 1] & 0xff);
+            final int db = b - (tab[i + 2] & 0xff);
+            final int d = dr * dr + dg * dg + db * db;
+            if (d < dmin) {
+                dmin = d;
+                minpos = i / 3;
+            }
+        }
+        return minpos;
+    }
+
+    /**
+     * Keeps a copy of the BGR byte array of a frame to compare the next frame
+     * with.
+     */
+    protected void setPrevious(final byte[] frame) {
+        if (frame == this.spare) {
+            // swap the buffers instead of copying
+            this.spare = this.previous;
+            this.previous = frame;
+            return;
+        }
+        if ((this.previous == null) || (this.previous.length != frame.length)) {
+            this.previous = new byte[frame.length];
+        }
+        System.arraycopy(frame, 0, this.previous, 0, frame.length);
+    }
+
+    /**
+     * Keeps the pixels of an image as previous frame.
+     */
+    protected void setPrevious(final BufferedImage im) {
+        final BufferedImage current = this.image;
+        this.image = im;
+        getImagePixels();
+        setPrevious(this.pixels);
+        this.image = current;
         this.pixels = null;
-        this.colorDepth = 8;
-        this.palSize = 7;
-        // get closest match to transparent color if specified
-        if (this.transparent != null) {
-            this.transIndex = findClosest(this.transparent);
+    }
+
+    /**
+     * Keeps ARGB pixels as previous frame.
+     */
+    protected void setPrevious(final int[] argb, final int w, final int h) {
+        getImagePixels(argb, w, h);
+        setPrevious(this.pixels);
+        this.pixels = null;
+    }
+
+    /**
+     * Reduces the image to the bounding box of the pixels which differ from
+     * the previous frame, or to a single pixel if none does.
+     */
+    protected void cropPixels() {
+        final int stride = 3 * this.width;
+        int left = this.width;
+        int right = -1;
+        int top = -1;
+        int bottom = -1;
+        for (int y = 0; y < this.height; y++) {
+            final int row = y * stride;
+            int first = 0;
+            while ((first < stride)
+                    && (this.pixels[row + first] == this.previous[row + first])) {
+                first++;
+            }
+            if (first == stride) {
+                continue;
+            }
+            int last = stride - 1;
+            while (this.pixels[row + last] == this.previous[row + last]) {
+                last--;
+            }
+            left = Math.min(left, first / 3);
+            right = Math.max(right, last / 3);
+            if (top < 0) {
+                top = y;
+            }
+            bottom = y;
+        }
+        if (top < 0) {
+            left = right = top = bottom = 0;
+        }
+        this.imageX = left;
+        this.imageY = top;
+        this.imageWidth = right - left + 1;
+        this.imageHeight = bottom - top + 1;
+        final byte[] cropped = new byte[3 * this.imageWidth * this.imageHeight];
+        for (int y = 0; y < this.imageHeight; y++) {
+            System.arraycopy(this.pixels,
+                             (top + y) * stride + 3 * left,
+                             cropped,
+                             3 * y * this.imageWidth,
+                             3 * this.imageWidth);
+        }
+        this.pixels = cropped;
+    }
+
+    /**
+     * Replaces the unchanged pixels of the cropped frame by an index no
+     * changed pixel uses, which becomes the transparent index. If there is
+     * none the whole box is written.
+     */
+    protected void maskPixels(final byte[] frame) {
+        final int stride = 3 * this.width;
+        final boolean[] used = new boolean[256];
+        for (int y = 0; y < this.imageHeight; y++) {
+            final int row = (this.imageY + y) * stride + 3 * this.imageX;
+            for (int x = 0; x < this.imageWidth; x++) {
+                final int k = row + 3 * x;
+                if ((frame[k] != this.previous[k])
+                        || (frame[k + 1] != this.previous[k + 1])
+                        || (frame[k + 2] != this.previous[k + 2])) {
+                    used[this.indexedPixels[y * this.imageWidth + x] & 0xff] = true;
+                }
+            }
+        }
+        int index = 0;
+        while ((index < (1 << this.colorDepth)) && used[index]) {
+            index++;
+        }
+        if (index == (1 << this.colorDepth)) {
+            this.deltaFrame = false;
+            return;
+        }
+        for (int y = 0; y < this.imageHeight; y++) {
+            final int row = (this.imageY + y) * stride + 3 * this.imageX;
+            for (int x = 0; x < this.imageWidth; x++) {
+                final int k = row + 3 * x;
+                if ((frame[k] == this.previous[k])
+                        && (frame[k + 1] == this.previous[k + 1])
+                        && (frame[k + 2] == this.previous[k + 2])) {
+                    this.indexedPixels[y * this.imageWidth + x] = (byte) index;
+                }
+            }
         }
+        this.transIndex = index;
     }
 
     /**
@@ -412,6 +863,45 @@ public class AnimatedGifEncoder {
         this.pixels = ((DataBufferByte) this.image.getRaster().getDataBuffer()).getData();
     }
 
+    /**
+     * Converts ARGB pixels into the byte array "pixels", composited over
+     * black and cut or padded to the frame size like the image of
+     * <code>getImagePixels()</code>.
+     */
+    protected void getImagePixels(final int[] argb, final int w, final int h) {
+        final int len = 3 * this.width * this.height;
+        if ((this.spare == null) || (this.spare.length != len)) {
+            this.spare = new byte[len];
+        }
+        final byte[] bgr = this.spare;
+        final int rows = Math.min(h, this.height);
+        final int columns = Math.min(w, this.width);
+        for (int y = 0; y < rows; y++) {
+            int k = 3 * y * this.width;
+            for (int x = y * w; x < y * w + columns; x++) {
+                int pixel = argb[x];
+                final int alpha = pixel >>> 24;
+                if (alpha != 0xff) {
+                    pixel = blend(pixel, alpha);
+                }
+                bgr[k++] = (byte) pixel;
+                bgr[k++] = (byte) (pixel >> 8);
+                bgr[k++] = (byte) (pixel >> 16);
+            }
+            Arrays.fill(bgr, k, 3 * (y + 1) * this.width, (byte) 0);
+        }
+        Arrays.fill(bgr, 3 * rows * this.width, len, (byte) 0);
+        this.pixels = bgr;
+    }
+
+    private static int blend(final int pixel, final int alpha) {
+        int result = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            result |= ((((pixel >> shift) & 0xff) * alpha + 127) / 255) << shift;
+        }
+        return result;
+    }
+
     /**
      * Writes Graphic Control Extension
      */
@@ -420,7 +910,11 @@ public class AnimatedGifEncoder {
         this.out.write(0xf9); // GCE label
         this.out.write(4); // data block size
         int transp, disp;
-        if (this.transparent == null) {
+        if (this.deltaFrame) {
+            transp = 1;
+            disp = 1; // leave in place, the next frame draws over it
+        }
+        else if (this.transparent == null) {
             transp = 0;
             disp = 0; // dispose = no action
         }
@@ -449,12 +943,12 @@ public class AnimatedGifEncoder {
      */
     protected void writeImageDesc() throws IOException {
         this.out.write(0x2c); // image separator
-        writeShort(0); // image position x,y = 0,0
-        writeShort(0);
-        writeShort(this.width); // image size
-        writeShort(this.height);
+        writeShort(this.imageX); // image position x,y
+        writeShort(this.imageY);
+        writeShort(this.imageWidth); // image size
+        writeShort(this.imageHeight);
         // packed fields
-        if (this.firstFrame) {
+        if (!this.localTab) {
             // no LCT - GCT is used for first (or only) frame
             this.out.write(0);
         }
@@ -505,7 +999,7 @@ public class AnimatedGifEncoder {
      */
     protected void writePalette() throws IOException {
         this.out.write(this.colorTab, 0, this.colorTab.length);
-        final int n = (3 * 256) - this.colorTab.length;
+        final int n = (3 << (this.palSize + 1)) - this.colorTab.length;
         for (int i = 0; i < n; i++) {
             this.out.write(0);
         }
@@ -515,11 +1009,14 @@ public class AnimatedGifEncoder {
      * Encodes and writes pixel data
      */
     protected void writePixels() throws IOException {
-        final LZWEncoder encoder = new LZWEncoder(this.width,
-                this.height,
-                this.indexedPixels,
-                this.colorDepth);
-        encoder.encode(this.out);
+        if (this.lzwEncoder == null) {
+            this.lzwEncoder = new LZWEncoder();
+        }
+        this.lzwEncoder.reset(this.imageWidth,
+                              this.imageHeight,
+                              this.indexedPixels,
+                              this.colorDepth);
+        this.lzwEncoder.encode(this.out);
     }
 
     /**
@@ -539,6 +1036,80 @@ public class AnimatedGifEncoder {
         }
     }
 
+    /**
+     * Open addressing hash from 24 bit RGB colors to color table indexes.
+     */
+    static class ColorIndex {
+
+        private int[]  keys   = new int[1024];
+
+        private byte[] values = new byte[1024];
+
+        private int    size;
+
+        ColorIndex() {
+            Arrays.fill(this.keys, -1);
+        }
+
+        ColorIndex copy() {
+            final ColorIndex copy = new ColorIndex();
+            copy.keys = this.keys.clone();
+            copy.values = this.values.clone();
+            copy.size = this.size;
+            return copy;
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * Returns the index of rgb or -1
+         */
+        int get(final int rgb) {
+            final int mask = this.keys.length - 1;
+            for (int i = hash(rgb) & mask;; i = (i + 1) & mask) {
+                if (this.keys[i] == rgb) {
+                    return this.values[i] & 0xff;
+                }
+                if (this.keys[i] < 0) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(final int rgb, final int index) {
+            if (2 * (this.size + 1) > this.keys.length) {
+                final int[] keys = this.keys;
+                final byte[] values = this.values;
+                this.keys = new int[2 * keys.length];
+                this.values = new byte[2 * keys.length];
+                Arrays.fill(this.keys, -1);
+                this.size = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] >= 0) {
+                        put(keys[i], values[i] & 0xff);
+                    }
+                }
+            }
+            final int mask = this.keys.length - 1;
+            int i = hash(rgb) & mask;
+            while (this.keys[i] >= 0 && this.keys[i] != rgb) {
+                i = (i + 1) & mask;
+            }
+            if (this.keys[i] < 0) {
+                this.size++;
+            }
+            this.keys[i] = rgb;
+            this.values[i] = (byte) index;
+        }
+
+        private static int hash(final int rgb) {
+            final int h = rgb * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
     /*
      * NeuQuant Neural-Net Quantization Algorithm
      * ------------------------------------------
@@ -1188,11 +1759,11 @@ public class AnimatedGifEncoder {
 
         private static final int EOF        = -1;
 
-        private final int        imgW, imgH;
+        private int              imgW, imgH;
 
-        private final byte[]     pixAry;
+        private byte[]           pixAry;
 
-        private final int        initCodeSize;
+        private int              initCodeSize;
 
         private int              remaining;
 
@@ -1301,9 +1872,21 @@ public class AnimatedGifEncoder {
         // Define the storage for the packet accumulator
         byte[]                   accum      = new byte[256];
 
+        // Where the packets go while encoding
+        private OutputStream     outs;
+
         // ----------------------------------------------------------------------------
+        LZWEncoder() {
+        }
+
         LZWEncoder(final int width, final int height, final byte[] pixels,
                 final int color_depth) {
+            reset(width, height, pixels, color_depth);
+        }
+
+        // Set up the next image, keeping the tables
+        void reset(final int width, final int height, final byte[] pixels,
+                final int color_depth) {
             this.imgW = width;
             this.imgH = height;
             this.pixAry = pixels;
@@ -1312,33 +1895,30 @@ public class AnimatedGifEncoder {
 
         // Add a character to the end of the current packet, and if it is 254
         // characters, flush the packet to disk.
-        void char_out(final byte c, final OutputStream outs) throws IOException {
+        void char_out(final byte c) throws IOException {
             this.accum[this.a_count++] = c;
             if (this.a_count >= 254) {
-                flush_char(outs);
+                flush_char();
             }
         }
 
         // Clear out the hash table
 
         // table clear for block compress
-        void cl_block(final OutputStream outs) throws IOException {
+        void cl_block() throws IOException {
             cl_hash(this.hsize);
             this.free_ent = this.ClearCode + 2;
             this.clear_flg = true;
 
-            output(this.ClearCode, outs);
+            output(this.ClearCode);
         }
 
         // reset code table
         void cl_hash(final int hsize) {
-            for (int i = 0; i < hsize; ++i) {
-                this.htab[i] = -1;
-            }
+            Arrays.fill(this.htab, 0, hsize, -1);
         }
 
-        void compress(final int init_bits, final OutputStream outs)
-                throws IOException {
+        void compress(final int init_bits) throws IOException {
             int fcode;
             int i /* = 0 */;
             int c;
@@ -1372,17 +1952,24 @@ public class AnimatedGifEncoder {
             hsize_reg = this.hsize;
             cl_hash(hsize_reg); // clear hash table
 
-            output(this.ClearCode, outs);
-
-            outer_loop: while ((c = nextPixel()) != EOF) {
-                fcode = (c << this.maxbits) + ent;
+            output(this.ClearCode);
+
+            // walk the pixels directly and keep the tables in locals
+            final byte[] pixels = this.pixAry;
+            final int end = this.curPixel + this.remaining;
+            final int[] htab = this.htab;
+            final int[] codetab = this.codetab;
+            final int maxbits = this.maxbits;
+            outer_loop: for (int pixel = this.curPixel; pixel < end; pixel++) {
+                c = pixels[pixel] & 0xff;
+                fcode = (c << maxbits) + ent;
                 i = (c << hshift) ^ ent; // xor hashing
 
-                if (this.htab[i] == fcode) {
-                    ent = this.codetab[i];
+                if (htab[i] == fcode) {
+                    ent = codetab[i];
                     continue;
                 }
-                else if (this.htab[i] >= 0) // non-empty slot
+                else if (htab[i] >= 0) // non-empty slot
                 {
                     disp = hsize_reg - i; // secondary hash (after G. Knott)
                     if (i == 0) {
@@ -1393,47 +1980,53 @@ public class AnimatedGifEncoder {
                             i += hsize_reg;
                         }
 
-                        if (this.htab[i] == fcode) {
-                            ent = this.codetab[i];
+                        if (htab[i] == fcode) {
+                            ent = codetab[i];
                             continue outer_loop;
                         }
                     }
-                    while (this.htab[i] >= 0);
+                    while (htab[i] >= 0);
                 }
-                output(ent, outs);
+                output(ent);
                 ent = c;
                 if (this.free_ent < this.maxmaxcode) {
-                    this.codetab[i] = this.free_ent++; // code -> hashtable
-                    this.htab[i] = fcode;
+                    codetab[i] = this.free_ent++; // code -> hashtable
+                    htab[i] = fcode;
                 }
                 else {
-                    cl_block(outs);
+                    cl_block();
                 }
             }
+            this.curPixel = end;
+            this.remaining = 0;
             // Put out the final code.
-            output(ent, outs);
-            output(this.EOFCode, outs);
+            output(ent);
+            output(this.EOFCode);
         }
 
         // ----------------------------------------------------------------------------
         void encode(final OutputStream os) throws IOException {
+            this.outs = os;
             os.write(this.initCodeSize); // write "initial code size" byte
 
             this.remaining = this.imgW * this.imgH; // reset navigation
             // variables
             this.curPixel = 0;
+            this.cur_accum = 0;
+            this.cur_bits = 0;
 
-            compress(this.initCodeSize + 1, os); // compress and write the pixel
+            compress(this.initCodeSize + 1); // compress and write the pixel
             // data
 
             os.write(0); // write block terminator
+            this.outs = null;
         }
 
         // Flush the packet to disk, and reset the accumulator
-        void flush_char(final OutputStream outs) throws IOException {
+        void flush_char() throws IOException {
             if (this.a_count > 0) {
-                outs.write(this.a_count);
-                outs.write(this.accum, 0, this.a_count);
+                this.outs.write(this.a_count);
+                this.outs.write(this.accum, 0, this.a_count);
                 this.a_count = 0;
             }
         }
@@ -1457,7 +2050,7 @@ public class AnimatedGifEncoder {
             return pix & 0xff;
         }
 
-        void output(final int code, final OutputStream outs) throws IOException {
+        void output(final int code) throws IOException {
             this.cur_accum &= this.masks[this.cur_bits];
 
             if (this.cur_bits > 0) {
@@ -1470,7 +2063,7 @@ public class AnimatedGifEncoder {
             this.cur_bits += this.n_bits;
 
             while (this.cur_bits >= 8) {
-                char_out((byte) (this.cur_accum & 0xff), outs);
+                char_out((byte) (this.cur_accum & 0xff));
                 this.cur_accum >>= 8;
                 this.cur_bits -= 8;
             }
@@ -1496,12 +2089,12 @@ public class AnimatedGifEncoder {
             if (code == this.EOFCode) {
                 // At EOF, write the rest of the buffer.
                 while (this.cur_bits > 0) {
-                    char_out((byte) (this.cur_accum & 0xff), outs);
+                    char_out((byte) (this.cur_accum & 0xff));
                     this.cur_accum >>= 8;
                     this.cur_bits -= 8;
                 }
 
-                flush_char(outs);
+                flush_char();
             }
         }
     }
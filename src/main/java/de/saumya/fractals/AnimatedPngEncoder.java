@@ -0,0 +1,466 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * encodes an animated PNG (APNG) in true color with alpha, lossless and
+ * without a limit on the colors, with the lifecycle of
+ * {@link AnimatedGifEncoder}.
+ * 
+ * <pre>
+ *     AnimatedPngEncoder e = new AnimatedPngEncoder(threads);
+ *     e.start(outputFileName);
+ *     e.setDelay(1000);   // 1 frame per sec
+ *     e.setFrameCount(frames);
+ *     e.addFrame(pixels, width, height);
+ *     ...
+ *     e.finish();
+ * </pre>
+ * 
+ * the first frame is written whole, every later frame only as the bounding
+ * box of the pixels which changed since the frame before, drawn over it. the
+ * frames are filtered row by row like a {@link PngWriter} image, deflated on
+ * a pool of threads and written in frame order. the animation control chunk
+ * carries the number of frames ahead of the image data, so with
+ * {@link #setFrameCount(int)} the frames are written as they are done.
+ * without it every deflated frame stays in memory until {@link #finish()},
+ * which for long animations of large frames can be a lot.
+ * <p>
+ * frames must not be modified after they are added.
+ */
+public class AnimatedPngEncoder {
+
+    /** a frame as deflated by a worker */
+    static final class Frame {
+
+        int    x, y, width, height;
+
+        int    delay;
+
+        byte[] data;
+    }
+
+    private final int                       parallelism;
+
+    private final LinkedList<Future<Frame>> pending  = new LinkedList<Future<Frame>>();
+
+    private final List<Frame>               buffered = new ArrayList<Frame>();
+
+    private ExecutorService                 executor;
+
+    private OutputStream                    out;
+
+    private boolean                         closeStream;
+
+    private boolean                         started;
+
+    private boolean                         sizeSet;
+
+    private int                             width;
+
+    private int                             height;
+
+    private int                             delay;
+
+    private int                             repeat;
+
+    private int                             frameCount = -1;
+
+    /** frames added */
+    private int                             frames;
+
+    /** frames written */
+    private int                             written;
+
+    /** sequence number of the next fcTL or fdAT chunk */
+    private int                             sequence;
+
+    private int[]                           previous;
+
+    public AnimatedPngEncoder() {
+        this(1);
+    }
+
+    public AnimatedPngEncoder(final int parallelism) {
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    /**
+     * Sets the delay time between each frame, or changes it for subsequent
+     * frames.
+     * 
+     * @param ms
+     *            int delay time in milliseconds, at most 65535
+     */
+    public void setDelay(final int ms) {
+        this.delay = ms < 0 ? 0 : Math.min(ms, 0xffff);
+    }
+
+    /**
+     * Sets the number of times the animation is played, 0 means play
+     * indefinitely, which is the default. Must be invoked before the first
+     * image is added.
+     */
+    public void setRepeat(final int iter) {
+        if (iter >= 0) {
+            this.repeat = iter;
+        }
+    }
+
+    /**
+     * Sets the number of frames which will be added, so frames can be written
+     * as they come instead of being kept until {@link #finish()}. Must be
+     * invoked before the first image is added.
+     */
+    public void setFrameCount(final int count) {
+        if (this.frames == 0) {
+            this.frameCount = count;
+        }
+    }
+
+    /**
+     * Sets the frame size. The default size is the size of the first frame
+     * added if this method is not invoked.
+     */
+    public void setSize(final int w, final int h) {
+        if (this.started && (this.frames > 0)) {
+            return;
+        }
+        this.width = w < 1 ? 320 : w;
+        this.height = h < 1 ? 240 : h;
+        this.sizeSet = true;
+    }
+
+    /**
+     * Initiates APNG creation on the given stream. The stream is not closed
+     * automatically.
+     */
+    public boolean start(final OutputStream os) {
+        if (os == null) {
+            return false;
+        }
+        this.out = os;
+        this.closeStream = false;
+        try {
+            os.write(PngWriter.SIGNATURE);
+        }
+        catch (final IOException e) {
+            return this.started = false;
+        }
+        return this.started = true;
+    }
+
+    /**
+     * Initiates writing of an APNG file with the specified name.
+     */
+    public boolean start(final String file) {
+        boolean ok = true;
+        try {
+            ok = start(new BufferedOutputStream(new FileOutputStream(file)));
+            this.closeStream = true;
+        }
+        catch (final IOException e) {
+            ok = false;
+        }
+        return this.started = ok;
+    }
+
+    /**
+     * Adds the next frame. Images of another size than the first frame are cut
+     * or padded with transparent pixels.
+     */
+    public boolean addFrame(final BufferedImage im) {
+        if ((im == null) || !this.started) {
+            return false;
+        }
+        final int w = im.getWidth();
+        final int h = im.getHeight();
+        return addFrame(im.getRGB(0, 0, w, h, null, 0, w), w, h);
+    }
+
+    /**
+     * Adds the next frame given as ARGB pixels, row by row. Returns false if
+     * the frame count set is already reached.
+     */
+    public boolean addFrame(final int[] argb, final int w, final int h) {
+        if ((argb == null) || !this.started) {
+            return false;
+        }
+        if (!this.sizeSet) {
+            setSize(w, h);
+        }
+        if ((this.frameCount >= 0) && (this.frames == this.frameCount)) {
+            return false;
+        }
+        final int[] current = (w != this.width) || (h != this.height)
+                ? resize(argb, w, h)
+                : argb;
+        final int[] previous = this.previous;
+        final int delay = this.delay;
+        this.previous = current;
+        this.frames++;
+        try {
+            if (this.parallelism == 1) {
+                write(encode(current, previous, delay));
+            }
+            else {
+                if (this.executor == null) {
+                    this.executor = Executors.newFixedThreadPool(this.parallelism,
+                                                                 new DaemonThreadFactory("apng-encoder"));
+                }
+                this.pending.add(this.executor.submit(new Callable<Frame>() {
+
+                    public Frame call() {
+                        return encode(current, previous, delay);
+                    }
+                }));
+                // keep the workers busy but do not buffer more frames than
+                // needed
+                drain(2 * this.parallelism);
+            }
+            return true;
+        }
+        catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the remaining frames and the end of the file. If writing to an
+     * OutputStream, the stream is not closed. Returns false if fewer frames
+     * were added than the frame count set, the file is left without its end
+     * then.
+     */
+    public boolean finish() {
+        if (!this.started) {
+            return false;
+        }
+        this.started = false;
+        boolean ok = true;
+        try {
+            drain(0);
+            if (this.frameCount < 0) {
+                this.frameCount = this.frames;
+                for (final Frame frame : this.buffered) {
+                    write(frame);
+                }
+            }
+            if (this.written == this.frameCount) {
+                PngWriter.writeChunk(this.out, "IEND", new byte[0]);
+            }
+            else {
+                ok = false;
+            }
+            this.out.flush();
+            if (this.closeStream) {
+                this.out.close();
+            }
+        }
+        catch (final IOException e) {
+            ok = false;
+        }
+        finally {
+            this.pending.clear();
+            this.buffered.clear();
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+            // reset for subsequent use
+            this.out = null;
+            this.previous = null;
+            this.frameCount = -1;
+            this.frames = 0;
+            this.written = 0;
+            this.sequence = 0;
+        }
+        return ok;
+    }
+
+    private int[] resize(final int[] argb, final int w, final int h) {
+        final int[] resized = new int[this.width * this.height];
+        for (int y = 0; y < Math.min(h, this.height); y++) {
+            System.arraycopy(argb, y * w, resized, y * this.width, Math.min(w,
+                                                                            this.width));
+        }
+        return resized;
+    }
+
+    /**
+     * the bounding box of the pixels which differ from the previous frame,
+     * filtered and deflated.
+     */
+    Frame encode(final int[] argb, final int[] previous, final int delay) {
+        final Frame frame = new Frame();
+        frame.delay = delay;
+        frame.width = this.width;
+        frame.height = this.height;
+        if (previous != null) {
+            int left = this.width;
+            int right = -1;
+            int top = -1;
+            int bottom = -1;
+            for (int y = 0; y < this.height; y++) {
+                final int row = y * this.width;
+                int first = 0;
+                while ((first < this.width)
+                        && (argb[row + first] == previous[row + first])) {
+                    first++;
+                }
+                if (first == this.width) {
+                    continue;
+                }
+                int last = this.width - 1;
+                while (argb[row + last] == previous[row + last]) {
+                    last--;
+                }
+                left = Math.min(left, first);
+                right = Math.max(right, last);
+                if (top < 0) {
+                    top = y;
+                }
+                bottom = y;
+            }
+            if (top < 0) {
+                left = right = top = bottom = 0;
+            }
+            frame.x = left;
+            frame.y = top;
+            frame.width = right - left + 1;
+            frame.height = bottom - top + 1;
+        }
+
+        final byte[] scanline = new byte[PngWriter.scanlineLength(frame.width)];
+        // the box is an image of its own, so the first row has zeros above
+        byte[] row = new byte[PngWriter.BPP * frame.width];
+        byte[] prior = new byte[PngWriter.BPP * frame.width];
+        final long[] colors = new long[2 * PngWriter.FEW_COLORS];
+        final byte[] buffer = new byte[PngWriter.CHUNK_SIZE];
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater();
+        try {
+            for (int y = frame.y; y < frame.y + frame.height; y++) {
+                final int offset = y * this.width + frame.x;
+                PngWriter.rgba(argb, offset, frame.width, row);
+                PngWriter.filter(row,
+                                 prior,
+                                 scanline,
+                                 0,
+                                 PngWriter.fewColors(argb,
+                                                     offset,
+                                                     frame.width,
+                                                     colors)
+                                         ? PngWriter.NONE
+                                         : PngWriter.filterType(row, prior));
+                deflater.setInput(scanline);
+                while (!deflater.needsInput()) {
+                    data.write(buffer, 0, deflater.deflate(buffer));
+                }
+                final byte[] above = prior;
+                prior = row;
+                row = above;
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                data.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        frame.data = data.toByteArray();
+        return frame;
+    }
+
+    /**
+     * writes the deflated frames in order, as long as they are done or more
+     * than window frames are pending.
+     */
+    private void drain(final int window) throws IOException {
+        try {
+            while (!this.pending.isEmpty()
+                    && ((this.pending.size() > window) || this.pending.getFirst()
+                            .isDone())) {
+                write(this.pending.removeFirst().get());
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while encoding frames");
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void write(final Frame frame) throws IOException {
+        if (this.frameCount < 0) {
+            this.buffered.add(frame);
+            return;
+        }
+        if (this.written == 0) {
+            PngWriter.writeChunk(this.out,
+                                 "IHDR",
+                                 PngWriter.header(this.width, this.height));
+            final byte[] actl = new byte[8];
+            PngWriter.writeInt(actl, 0, this.frameCount);
+            PngWriter.writeInt(actl, 4, this.repeat);
+            PngWriter.writeChunk(this.out, "acTL", actl);
+        }
+        final byte[] fctl = new byte[26];
+        PngWriter.writeInt(fctl, 0, this.sequence++);
+        PngWriter.writeInt(fctl, 4, frame.width);
+        PngWriter.writeInt(fctl, 8, frame.height);
+        PngWriter.writeInt(fctl, 12, frame.x);
+        PngWriter.writeInt(fctl, 16, frame.y);
+        fctl[20] = (byte) (frame.delay >> 8); // delay in 1/1000 s
+        fctl[21] = (byte) frame.delay;
+        fctl[22] = (byte) (1000 >> 8);
+        fctl[23] = (byte) 1000;
+        fctl[24] = 0; // dispose none, the next frame draws over this one
+        fctl[25] = 0; // blend source, the box replaces what was there
+        PngWriter.writeChunk(this.out, "fcTL", fctl);
+        for (int offset = 0; offset < frame.data.length; offset += PngWriter.CHUNK_SIZE) {
+            final int length = Math.min(PngWriter.CHUNK_SIZE,
+                                        frame.data.length - offset);
+            if (this.written == 0) {
+                PngWriter.writeChunk(this.out,
+                                     "IDAT",
+                                     frame.data,
+                                     offset,
+                                     length);
+            }
+            else {
+                final byte[] fdat = new byte[4 + length];
+                PngWriter.writeInt(fdat, 0, this.sequence++);
+                System.arraycopy(frame.data, offset, fdat, 4, length);
+                PngWriter.writeChunk(this.out, "fdAT", fdat);
+            }
+        }
+        this.written++;
+    }
+}
@@ -8,6 +8,7 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.MemoryImageSource;
+import java.io.IOException;
 
 public class AnimationApplet extends Applet {
 
@@ -20,12 +21,10 @@ public class AnimationApplet extends Applet {
     protected PixelProducer createPixelProducer(final int width,
             final int height) {
         return new PixelProducer(width, height, 25) {
+            final int[] colors = new ColorMapFactory().argbMap(true, true, true);
 
             @Override
             protected void produce(final int frame, final int[] pixels) {
-                final Color[] colors = new ColorMapFactory().map(true,
-                                                                 true,
-                                                                 true);
                 int index = 0;
                 for (int y = 0; y < this.height; y++) {
                     for (int x = 0; x < this.width; x++) {
@@ -35,7 +34,7 @@ public class AnimationApplet extends Applet {
                             System.err.println(x + " " + y);
                         }
                         else {
-                            pixels[index] = colors[fx].getRGB();
+                            pixels[index] = this.colors[fx];
                         }
 
                         index++;
@@ -43,9 +42,26 @@ public class AnimationApplet extends Applet {
                 }
                 System.err.println("frame " + frame);
             }
+
+            @Override
+            protected PixelProducer fork() {
+                // only reads its colors, so all threads can share it
+                return this;
+            }
         };
     }
 
+    /**
+     * number of frames produced concurrently, taken from the applet parameter
+     * "parallelism" and defaulting to the number of processors.
+     */
+    protected int parallelism() {
+        final String parallelism = getParameter("parallelism");
+        return parallelism == null
+                ? Runtime.getRuntime().availableProcessors()
+                : Integer.parseInt(parallelism);
+    }
+
     @Override
     public void init() {
         final PixelProducer pixels = createPixelProducer(this.getSize().width,
@@ -89,16 +105,24 @@ public class AnimationApplet extends Applet {
 
         @Override
         public void run() {
-            for (int i = 0; i < this.pixels.frames; i++) {
-                final MemoryImageSource mis = new MemoryImageSource(this.pixels.width,
-                        this.pixels.height,
-                        this.pixels.produce(i),
-                        0,
-                        this.pixels.width);
-                mis.setAnimated(false);
-                mis.setFullBufferUpdates(false);
-
-                this.animationApplet.img[i] = this.animationApplet.createImage(mis);
+            try {
+                new FrameScheduler(this.pixels, this.animationApplet.parallelism()).produce(new FrameScheduler.FrameConsumer() {
+
+                    public void consume(final int frame, final int[] pixels) {
+                        final MemoryImageSource mis = new MemoryImageSource(ProducerThread.this.pixels.width,
+                                ProducerThread.this.pixels.height,
+                                pixels,
+                                0,
+                                ProducerThread.this.pixels.width);
+                        mis.setAnimated(false);
+                        mis.setFullBufferUpdates(false);
+
+                        ProducerThread.this.animationApplet.img[frame] = ProducerThread.this.animationApplet.createImage(mis);
+                    }
+                });
+            }
+            catch (final IOException e) {
+                e.printStackTrace();
             }
         }
 
@@ -0,0 +1,41 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.IOException;
+
+/**
+ * a {@link PixelProducer} which produces any band of rows of a frame on its
+ * own, so a frame goes into a {@link PixelSink} with one band buffer, however
+ * large the frame is.
+ */
+public abstract class BandedPixelProducer extends PixelProducer {
+
+    public BandedPixelProducer(final int width, final int height,
+            final int frames) {
+        super(width, height, frames);
+    }
+
+    /**
+     * produces the rows [y, y + rows) of a frame into pixels[0] to
+     * pixels[rows * width - 1].
+     */
+    protected abstract void produceRows(int frame, long y, int rows,
+            int[] pixels);
+
+    /**
+     * produces a frame band by band into the sink, with one band buffer of
+     * the given number of rows.
+     */
+    @Override
+    public void produce(final int frame, final PixelSink sink, final int band)
+            throws IOException {
+        final int[] pixels = rowBuffer(this.width, Math.min(band, this.height));
+        for (long y = 0; y < this.height; y += band) {
+            final int rows = (int) Math.min(band, this.height - y);
+            produceRows(frame, y, rows, pixels);
+            sink.setRows(y, rows, pixels, 0);
+        }
+    }
+}
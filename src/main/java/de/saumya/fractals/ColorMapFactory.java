@@ -4,9 +4,14 @@
 package de.saumya.fractals;
 
 import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ColorMapFactory {
 
+    private static final Map<String, int[]> PALETTES = new HashMap<String, int[]>();
+
     public Color[] map(final boolean red, final boolean green,
             final boolean blue) {
         final Color colorArray[] = new Color[256];
@@ -28,4 +33,74 @@ public class ColorMapFactory {
         }
         return colorArray;
     }
+
+    /**
+     * the colors of {@link #map(boolean, boolean, boolean)} as ARGB values.
+     * the table is cached and shared, so it must not be modified.
+     */
+    public int[] argbMap(final boolean red, final boolean green,
+            final boolean blue) {
+        return gradient(256, 0xff000000, 0xff000000 | rgb(red, green, blue));
+    }
+
+    /**
+     * the colors of {@link #mapInvers(boolean, boolean, boolean)} as ARGB
+     * values. the table is cached and shared, so it must not be modified.
+     */
+    public int[] argbMapInvers(final boolean red, final boolean green,
+            final boolean blue) {
+        return gradient(256, 0xff000000 | rgb(red, green, blue), 0xff000000);
+    }
+
+    /**
+     * a table of size ARGB values interpolated linearly between the given
+     * evenly spaced ARGB stops, a table of size one holds the first stop. the
+     * table is cached and shared, so it must not be modified.
+     */
+    public int[] gradient(final int size, final int... stops) {
+        if (stops.length == 0) {
+            throw new IllegalArgumentException("no color stops");
+        }
+        final String key = size + Arrays.toString(stops);
+        synchronized (PALETTES) {
+            int[] palette = PALETTES.get(key);
+            if (palette == null) {
+                palette = new int[size];
+                final int last = size - 1;
+                for (int i = 0; i < size; i++) {
+                    final int position = i * (stops.length - 1);
+                    final int stop = last == 0 ? 0 : position / last;
+                    if (last == 0) {
+                        palette[i] = stops[0];
+                    }
+                    else if (stop + 1 >= stops.length) {
+                        palette[i] = stops[stops.length - 1];
+                    }
+                    else {
+                        palette[i] = interpolate(stops[stop],
+                                                 stops[stop + 1],
+                                                 position % last,
+                                                 last);
+                    }
+                }
+                PALETTES.put(key, palette);
+            }
+            return palette;
+        }
+    }
+
+    private int rgb(final boolean red, final boolean green, final boolean blue) {
+        return (red ? 0xff0000 : 0) | (green ? 0xff00 : 0) | (blue ? 0xff : 0);
+    }
+
+    private int interpolate(final int from, final int to, final int step,
+            final int steps) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int a = (from >>> shift) & 0xff;
+            final int b = (to >>> shift) & 0xff;
+            result |= (a + (b - a) * step / steps) << shift;
+        }
+        return result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+/**
+ * reduces the colors of a frame to a palette of at most 256 colors for the
+ * {@link AnimatedGifEncoder}. implementations must be safe to use from
+ * several threads, as the {@link ParallelGifEncoder} quantizes frames
+ * concurrently.
+ */
+public interface ColorQuantizer {
+
+    /**
+     * builds the palette for the BGR pixels and maps each pixel to it.
+     * 
+     * @param pixels
+     *            BGR bytes of the frame.
+     * @param indexed
+     *            receives the palette index of each pixel.
+     * @param quality
+     *            sample interval as in
+     *            {@link AnimatedGifEncoder#setQuality(int)}, 1 uses every
+     *            pixel.
+     * @return the palette as RGB triples.
+     */
+    byte[] quantize(byte[] pixels, byte[] indexed, int quality);
+}
@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * named daemon threads, so worker pools never keep the vm or an applet alive.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+    private final String        name;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    DaemonThreadFactory(final String name) {
+        this.name = name;
+    }
+
+    public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, this.name + "-"
+                + this.count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
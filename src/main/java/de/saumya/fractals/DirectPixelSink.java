@@ -0,0 +1,110 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * keeps a frame off the heap in direct buffers of at most 2^28 pixels each,
+ * so frames beyond 2^31 pixels fit and the garbage collector never copies
+ * them.
+ */
+public class DirectPixelSink implements PixelSink {
+
+    static final int          SEGMENT_SHIFT = 28;
+
+    static final long         SEGMENT_MASK  = (1l << SEGMENT_SHIFT) - 1;
+
+    private final long        width;
+
+    private final long        height;
+
+    private final IntBuffer[] segments;
+
+    public DirectPixelSink(final long width, final long height) {
+        this(width, height, allocate(width * height));
+    }
+
+    protected DirectPixelSink(final long width, final long height,
+            final IntBuffer[] segments) {
+        this.width = width;
+        this.height = height;
+        this.segments = segments;
+    }
+
+    private static IntBuffer[] allocate(final long size) {
+        final IntBuffer[] segments = new IntBuffer[segments(size)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentLength(size, i) * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        }
+        return segments;
+    }
+
+    /**
+     * number of segments for size pixels.
+     */
+    static int segments(final long size) {
+        return (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+
+    /**
+     * number of pixels in segment i of size pixels.
+     */
+    static int segmentLength(final long size, final int i) {
+        return (int) Math.min(SEGMENT_MASK + 1, size
+                - ((long) i << SEGMENT_SHIFT));
+    }
+
+    public long width() {
+        return this.width;
+    }
+
+    public long height() {
+        return this.height;
+    }
+
+    public void setRows(final long y, final int rows, final int[] pixels,
+            int offset) {
+        long index = y * this.width;
+        int length = (int) (rows * this.width);
+        while (length > 0) {
+            final IntBuffer segment = this.segments[(int) (index >>> SEGMENT_SHIFT)];
+            final int position = (int) (index & SEGMENT_MASK);
+            final int count = Math.min(length, segment.capacity() - position);
+            segment.position(position);
+            segment.put(pixels, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    public int get(final long x, final long y) {
+        final long index = y * this.width + x;
+        return this.segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    /**
+     * reads rows [y, y + rows) into pixels starting at offset.
+     */
+    public void getRows(final long y, final int rows, final int[] pixels,
+            int offset) {
+        long index = y * this.width;
+        int length = (int) (rows * this.width);
+        while (length > 0) {
+            final IntBuffer segment = this.segments[(int) (index >>> SEGMENT_SHIFT)];
+            final int position = (int) (index & SEGMENT_MASK);
+            final int count = Math.min(length, segment.capacity() - position);
+            segment.position(position);
+            segment.get(pixels, offset, count);
+            index += count;
+            offset += count;
+            length -= count;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * produces the frames of a {@link PixelProducer} on a pool of threads and
+ * hands them to a {@link FrameConsumer} in frame order on the calling thread.
+ * each worker thread produces with its own {@link PixelProducer#fork()}.
+ */
+public class FrameScheduler {
+
+    public interface FrameConsumer {
+        void consume(int frame, int[] pixels) throws IOException;
+    }
+
+    private final PixelProducer producer;
+
+    private final int           parallelism;
+
+    public FrameScheduler(final PixelProducer producer, final int parallelism) {
+        this.producer = producer;
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    public void produce(final FrameConsumer consumer) throws IOException {
+        if (this.parallelism == 1) {
+            for (int i = 0; i < this.producer.frames; i++) {
+                consumer.consume(i, this.producer.produce(i));
+            }
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(this.parallelism,
+                                                                      new DaemonThreadFactory("frame-producer"));
+        final ThreadLocal<PixelProducer> producers = new ThreadLocal<PixelProducer>() {
+
+            @Override
+            protected PixelProducer initialValue() {
+                return FrameScheduler.this.producer.fork();
+            }
+        };
+        // keep the workers busy but do not buffer more frames than needed
+        final int window = 2 * this.parallelism;
+        final LinkedList<Future<int[]>> pending = new LinkedList<Future<int[]>>();
+        int next = 0;
+        try {
+            for (int i = 0; i < this.producer.frames; i++) {
+                while (pending.size() < window && next < this.producer.frames) {
+                    final int frame = next++;
+                    pending.add(executor.submit(new Callable<int[]>() {
+
+                        public int[] call() {
+                            return producers.get().produce(frame);
+                        }
+                    }));
+                }
+                consumer.consume(i, pending.removeFirst().get());
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while producing frames");
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
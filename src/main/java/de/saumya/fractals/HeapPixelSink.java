@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+/**
+ * keeps a frame in an int[], the layout of {@link PixelProducer#produce(int)}.
+ * the array is reused for every frame stored into the sink.
+ */
+public class HeapPixelSink implements PixelSink {
+
+    private final int   width;
+
+    private final int   height;
+
+    private final int[] pixels;
+
+    public HeapPixelSink(final int width, final int height) {
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(width + "x" + height
+                    + " pixels do not fit into an int[]");
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    public long width() {
+        return this.width;
+    }
+
+    public long height() {
+        return this.height;
+    }
+
+    public void setRows(final long y, final int rows, final int[] pixels,
+            final int offset) {
+        System.arraycopy(pixels,
+                         offset,
+                         this.pixels,
+                         (int) (y * this.width),
+                         rows * this.width);
+    }
+
+    public int[] pixels() {
+        return this.pixels;
+    }
+}
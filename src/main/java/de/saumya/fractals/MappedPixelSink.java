@@ -0,0 +1,68 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * keeps a frame in a memory mapped raster file of big endian ARGB ints, row by
+ * row. the operating system pages the raster in and out, and whatever was
+ * forced to the file survives the process.
+ */
+public class MappedPixelSink extends DirectPixelSink {
+
+    private final RandomAccessFile   file;
+
+    private final MappedByteBuffer[] buffers;
+
+    public static MappedPixelSink open(final File raster, final long width,
+            final long height) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(raster, "rw");
+        final long size = width * height;
+        final MappedByteBuffer[] buffers = new MappedByteBuffer[segments(size)];
+        final IntBuffer[] segments = new IntBuffer[buffers.length];
+        try {
+            file.setLength(size * 4);
+            final FileChannel channel = file.getChannel();
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                                         ((long) i << SEGMENT_SHIFT) * 4,
+                                         segmentLength(size, i) * 4l);
+                segments[i] = buffers[i].asIntBuffer();
+            }
+        }
+        catch (final IOException e) {
+            file.close();
+            throw e;
+        }
+        return new MappedPixelSink(width, height, file, buffers, segments);
+    }
+
+    private MappedPixelSink(final long width, final long height,
+            final RandomAccessFile file, final MappedByteBuffer[] buffers,
+            final IntBuffer[] segments) {
+        super(width, height, segments);
+        this.file = file;
+        this.buffers = buffers;
+    }
+
+    /**
+     * writes all changed pixels to the file.
+     */
+    public void force() {
+        for (final MappedByteBuffer buffer : this.buffers) {
+            buffer.force();
+        }
+    }
+
+    public void close() throws IOException {
+        force();
+        this.file.close();
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.util.Arrays;
+
+/**
+ * quantizes with median cut over a histogram of 5 bits per channel: the box
+ * of histogram cells with the most pixels times its longest side is split at
+ * the median of that side until there are 256 boxes, each giving the average
+ * of its pixels as palette color.
+ */
+public class MedianCutQuantizer implements ColorQuantizer {
+
+    private static final int COLORS = 256;
+
+    private static final int CELLS  = 1 << 15;
+
+    /** a range of the sorted cells with its bounds per channel */
+    static final class Box {
+
+        final int from, to;
+
+        final int[] min = new int[3];
+
+        final int[] max = new int[3];
+
+        long      count;
+
+        Box(final int[] cells, final int[] histogram, final int from,
+                final int to) {
+            this.from = from;
+            this.to = to;
+            Arrays.fill(this.min, 31);
+            for (int i = from; i < to; i++) {
+                for (int c = 0; c < 3; c++) {
+                    final int v = channel(cells[i], c);
+                    this.min[c] = Math.min(this.min[c], v);
+                    this.max[c] = Math.max(this.max[c], v);
+                }
+                this.count += histogram[cells[i]];
+            }
+        }
+
+        int longest() {
+            int longest = 0;
+            for (int c = 1; c < 3; c++) {
+                if (this.max[c] - this.min[c] > this.max[longest]
+                        - this.min[longest]) {
+                    longest = c;
+                }
+            }
+            return longest;
+        }
+
+        long priority() {
+            final int c = longest();
+            return this.count * (this.max[c] - this.min[c]);
+        }
+    }
+
+    /** channel 0 red, 1 green, 2 blue of a 15 bit cell */
+    static int channel(final int cell, final int c) {
+        return (cell >> (10 - 5 * c)) & 31;
+    }
+
+    public byte[] quantize(final byte[] pixels, final byte[] indexed,
+            final int quality) {
+        final int[] histogram = new int[CELLS];
+        final int step = 3 * Math.max(1, quality);
+        for (int k = 0; k < pixels.length; k += step) {
+            histogram[cell(pixels[k + 2] & 0xff, pixels[k + 1] & 0xff, pixels[k] & 0xff)]++;
+        }
+        int size = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (histogram[cell] > 0) {
+                size++;
+            }
+        }
+        final int[] cells = new int[size];
+        for (int cell = 0, i = 0; cell < CELLS; cell++) {
+            if (histogram[cell] > 0) {
+                cells[i++] = cell;
+            }
+        }
+
+        final Box[] boxes = new Box[COLORS];
+        int count = 0;
+        boxes[count++] = new Box(cells, histogram, 0, size);
+        while (count < COLORS) {
+            int split = -1;
+            for (int i = 0; i < count; i++) {
+                if ((boxes[i].to - boxes[i].from > 1)
+                        && ((split < 0) || (boxes[i].priority() > boxes[split].priority()))) {
+                    split = i;
+                }
+            }
+            if (split < 0) {
+                break;
+            }
+            final Box box = boxes[split];
+            final int c = box.longest();
+            sort(cells, box.from, box.to, c);
+            // the median by pixel count, leaving both halves non empty
+            long half = box.count / 2;
+            int median = box.from + 1;
+            for (int i = box.from; i < box.to - 1 && half > 0; i++) {
+                half -= histogram[cells[i]];
+                median = i + 1;
+            }
+            boxes[split] = new Box(cells, histogram, box.from, median);
+            boxes[count++] = new Box(cells, histogram, median, box.to);
+        }
+
+        // the palette and the box of every sampled cell
+        final byte[] colorTab = new byte[3 * count];
+        final short[] lookup = new short[CELLS];
+        Arrays.fill(lookup, (short) -1);
+        for (int i = 0; i < count; i++) {
+            long r = 0, g = 0, b = 0;
+            for (int j = boxes[i].from; j < boxes[i].to; j++) {
+                final int cell = cells[j];
+                final long n = histogram[cell];
+                r += n * ((channel(cell, 0) << 3) + 4);
+                g += n * ((channel(cell, 1) << 3) + 4);
+                b += n * ((channel(cell, 2) << 3) + 4);
+                lookup[cell] = (short) i;
+            }
+            final long n = Math.max(1, boxes[i].count);
+            colorTab[3 * i] = (byte) (r / n);
+            colorTab[3 * i + 1] = (byte) (g / n);
+            colorTab[3 * i + 2] = (byte) (b / n);
+        }
+
+        int k = 0;
+        for (int i = 0; i < indexed.length; i++) {
+            final int b = pixels[k++] & 0xff;
+            final int g = pixels[k++] & 0xff;
+            final int r = pixels[k++] & 0xff;
+            final int cell = cell(r, g, b);
+            if (lookup[cell] < 0) {
+                // not sampled, remember the closest color for the cell
+                lookup[cell] = (short) AnimatedGifEncoder.closest(colorTab,
+                                                                  (r & ~7) + 4,
+                                                                  (g & ~7) + 4,
+                                                                  (b & ~7) + 4);
+            }
+            indexed[i] = (byte) lookup[cell];
+        }
+        return colorTab;
+    }
+
+    private static int cell(final int r, final int g, final int b) {
+        return ((r >> 3) << 10) | ((g >> 3) << 5) | (b >> 3);
+    }
+
+    /**
+     * sorts the cells of a range by one channel, a counting sort over its 32
+     * values.
+     */
+    private static void sort(final int[] cells, final int from, final int to,
+            final int c) {
+        final int[] start = new int[33];
+        for (int i = from; i < to; i++) {
+            start[channel(cells[i], c) + 1]++;
+        }
+        for (int v = 0; v < 32; v++) {
+            start[v + 1] += start[v];
+        }
+        final int[] sorted = new int[to - from];
+        for (int i = from; i < to; i++) {
+            sorted[start[channel(cells[i], c)]++] = cells[i];
+        }
+        System.arraycopy(sorted, 0, cells, from, sorted.length);
+    }
+}
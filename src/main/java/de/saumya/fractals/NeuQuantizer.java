@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import de.saumya.fractals.AnimatedGifEncoder.ColorIndex;
+import de.saumya.fractals.AnimatedGifEncoder.NeuQuant;
+
+/**
+ * the NeuQuant neural net quantizer, slow but with the best palettes. this is
+ * the default of the {@link AnimatedGifEncoder}. the search of the net is done
+ * once per distinct color of a frame, up to {@link #MEMO} colors, and
+ * remembered in a hash.
+ */
+public class NeuQuantizer implements ColorQuantizer {
+
+    /** distinct colors remembered per frame, the rest is searched each time */
+    static final int MEMO = 1 << 16;
+
+    public byte[] quantize(final byte[] pixels, final byte[] indexed,
+            final int quality) {
+        final NeuQuant nq = new NeuQuant(pixels, pixels.length, quality);
+        final byte[] colorTab = nq.process();
+        // convert map from BGR to RGB
+        for (int i = 0; i < colorTab.length; i += 3) {
+            final byte temp = colorTab[i];
+            colorTab[i] = colorTab[i + 2];
+            colorTab[i + 2] = temp;
+        }
+        final ColorIndex memo = new ColorIndex();
+        int k = 0;
+        for (int i = 0; i < indexed.length; i++) {
+            final int b = pixels[k++] & 0xff;
+            final int g = pixels[k++] & 0xff;
+            final int r = pixels[k++] & 0xff;
+            final int rgb = (r << 16) | (g << 8) | b;
+            int index = memo.get(rgb);
+            if (index < 0) {
+                index = nq.map(b, g, r);
+                if (memo.size() < MEMO) {
+                    memo.put(rgb, index);
+                }
+            }
+            indexed[i] = (byte) index;
+        }
+        return colorTab;
+    }
+}
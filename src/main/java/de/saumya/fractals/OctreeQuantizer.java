@@ -0,0 +1,187 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.util.Arrays;
+
+import de.saumya.fractals.AnimatedGifEncoder.ColorIndex;
+
+/**
+ * quantizes with an octree over the color bits: every sampled color is added
+ * down to the leaf of its 8 bits per channel, and while there are more than
+ * 256 leaves the deepest node is merged into a leaf. a frame takes about two
+ * passes over its pixels, a lot faster than {@link NeuQuantizer}.
+ */
+public class OctreeQuantizer implements ColorQuantizer {
+
+    private static final int DEPTH = 8;
+
+    private static final int COLORS = 256;
+
+    static final class Node {
+
+        long   red, green, blue;
+
+        int    count;
+
+        Node[] children;
+
+        int    index;
+
+        /** next reducible node of the same level */
+        Node   next;
+
+        boolean isLeaf() {
+            return this.children == null;
+        }
+    }
+
+    /** one octree per frame */
+    static final class Tree {
+
+        private final Node   root       = new Node();
+
+        private final Node[] reducible = new Node[DEPTH];
+
+        private int          leaves;
+
+        private byte[]       colorTab;
+
+        /** closest palette colors of colors which were not sampled */
+        private final ColorIndex closest = new ColorIndex();
+
+        Tree() {
+            this.root.children = new Node[8];
+        }
+
+        void add(final int r, final int g, final int b) {
+            Node node = this.root;
+            for (int level = 0; !node.isLeaf(); level++) {
+                final int i = child(r, g, b, level);
+                Node child = node.children[i];
+                if (child == null) {
+                    child = new Node();
+                    if (level + 1 < DEPTH) {
+                        child.children = new Node[8];
+                        child.next = this.reducible[level + 1];
+                        this.reducible[level + 1] = child;
+                    }
+                    else {
+                        this.leaves++;
+                    }
+                    node.children[i] = child;
+                }
+                node = child;
+            }
+            node.red += r;
+            node.green += g;
+            node.blue += b;
+            node.count++;
+            while (this.leaves > COLORS) {
+                reduce();
+            }
+        }
+
+        /**
+         * merges the children of the deepest inner node into it.
+         */
+        private void reduce() {
+            int level = DEPTH - 1;
+            while (this.reducible[level] == null) {
+                level--;
+            }
+            final Node node = this.reducible[level];
+            this.reducible[level] = node.next;
+            int children = 0;
+            for (final Node child : node.children) {
+                if (child != null) {
+                    node.red += child.red;
+                    node.green += child.green;
+                    node.blue += child.blue;
+                    node.count += child.count;
+                    children++;
+                }
+            }
+            node.children = null;
+            this.leaves -= children - 1;
+        }
+
+        byte[] colorTab() {
+            final byte[] colorTab = new byte[3 * this.leaves];
+            final int size = index(this.root, colorTab, 0);
+            return this.colorTab = Arrays.copyOf(colorTab, 3 * size);
+        }
+
+        private int index(final Node node, final byte[] colorTab, int size) {
+            if (node.isLeaf()) {
+                if (node.count > 0) {
+                    node.index = size;
+                    colorTab[3 * size] = (byte) (node.red / node.count);
+                    colorTab[3 * size + 1] = (byte) (node.green / node.count);
+                    colorTab[3 * size + 2] = (byte) (node.blue / node.count);
+                    size++;
+                }
+                return size;
+            }
+            for (final Node child : node.children) {
+                if (child != null) {
+                    size = index(child, colorTab, size);
+                }
+            }
+            return size;
+        }
+
+        /**
+         * the leaf of the color, or the closest palette color for colors
+         * which were not sampled.
+         */
+        int map(final int r, final int g, final int b) {
+            Node node = this.root;
+            for (int level = 0; !node.isLeaf(); level++) {
+                node = node.children[child(r, g, b, level)];
+                if (node == null) {
+                    return closest(r, g, b);
+                }
+            }
+            return node.count > 0 ? node.index : closest(r, g, b);
+        }
+
+        private int closest(final int r, final int g, final int b) {
+            final int rgb = (r << 16) | (g << 8) | b;
+            int index = this.closest.get(rgb);
+            if (index < 0) {
+                index = AnimatedGifEncoder.closest(this.colorTab, r, g, b);
+                if (this.closest.size() < NeuQuantizer.MEMO) {
+                    this.closest.put(rgb, index);
+                }
+            }
+            return index;
+        }
+
+        private static int child(final int r, final int g, final int b,
+                final int level) {
+            final int shift = 7 - level;
+            return (((r >> shift) & 1) << 2) | (((g >> shift) & 1) << 1)
+                    | ((b >> shift) & 1);
+        }
+    }
+
+    public byte[] quantize(final byte[] pixels, final byte[] indexed,
+            final int quality) {
+        final Tree tree = new Tree();
+        final int step = 3 * Math.max(1, quality);
+        for (int k = 0; k < pixels.length; k += step) {
+            tree.add(pixels[k + 2] & 0xff, pixels[k + 1] & 0xff, pixels[k] & 0xff);
+        }
+        final byte[] colorTab = tree.colorTab();
+        int k = 0;
+        for (int i = 0; i < indexed.length; i++) {
+            final int b = pixels[k++] & 0xff;
+            final int g = pixels[k++] & 0xff;
+            final int r = pixels[k++] & 0xff;
+            indexed[i] = (byte) tree.map(r, g, b);
+        }
+        return colorTab;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * a {@link AnimatedGifEncoder} which encodes the frames on a pool of threads.
+ * the first frame, which carries the global color table, is encoded on the
+ * calling thread. every later frame is quantized and compressed into a byte
+ * block of its own with the settings at the time it was added, and the blocks
+ * are written in frame order, so the output is the same as with a single
+ * thread. with {@link #setDelta(boolean)} each worker compares with the image
+ * added before its own. images and pixels must not be modified after they
+ * are added.
+ */
+public class ParallelGifEncoder extends AnimatedGifEncoder {
+
+    private final int                         parallelism;
+
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private ExecutorService                   executor;
+
+    private Frame                             previousFrame;
+
+    private final ThreadLocal<LZWEncoder>     lzwEncoders = new ThreadLocal<LZWEncoder>() {
+
+        @Override
+        protected LZWEncoder initialValue() {
+            return new LZWEncoder();
+        }
+    };
+
+    /**
+     * a frame as it was added.
+     */
+    private abstract static class Frame {
+
+        abstract void addTo(AnimatedGifEncoder encoder);
+
+        abstract void setPreviousOf(AnimatedGifEncoder encoder);
+    }
+
+    public ParallelGifEncoder(final int parallelism) {
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    @Override
+    public boolean addFrame(final BufferedImage im) {
+        if ((im == null) || !this.started) {
+            return false;
+        }
+        final Frame frame = new Frame() {
+
+            @Override
+            void addTo(final AnimatedGifEncoder encoder) {
+                encoder.addFrame(im);
+            }
+
+            @Override
+            void setPreviousOf(final AnimatedGifEncoder encoder) {
+                encoder.setPrevious(im);
+            }
+        };
+        if (this.firstFrame) {
+            this.previousFrame = frame;
+            return super.addFrame(im);
+        }
+        return submit(frame);
+    }
+
+    @Override
+    public boolean addFrame(final int[] argb, final int w, final int h) {
+        if ((argb == null) || !this.started) {
+            return false;
+        }
+        final Frame frame = new Frame() {
+
+            @Override
+            void addTo(final AnimatedGifEncoder encoder) {
+                encoder.addFrame(argb, w, h);
+            }
+
+            @Override
+            void setPreviousOf(final AnimatedGifEncoder encoder) {
+                encoder.setPrevious(argb, w, h);
+            }
+        };
+        if (this.firstFrame) {
+            this.previousFrame = frame;
+            return super.addFrame(argb, w, h);
+        }
+        return submit(frame);
+    }
+
+    private boolean submit(final Frame frame) {
+        final Frame previous = this.previousFrame;
+        this.previousFrame = frame;
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(this.parallelism,
+                                                         new DaemonThreadFactory("gif-encoder"));
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final AnimatedGifEncoder encoder = new AnimatedGifEncoder(this, buffer);
+        this.pending.add(this.executor.submit(new Callable<byte[]>() {
+
+            public byte[] call() {
+                encoder.lzwEncoder = ParallelGifEncoder.this.lzwEncoders.get();
+                if (encoder.delta && (previous != null)) {
+                    previous.setPreviousOf(encoder);
+                }
+                frame.addTo(encoder);
+                return buffer.toByteArray();
+            }
+        }));
+        try {
+            // keep the workers busy but do not buffer more frames than needed
+            write(2 * this.parallelism);
+            return true;
+        }
+        catch (final IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean finish() {
+        if (!this.started) {
+            return false;
+        }
+        boolean ok = true;
+        try {
+            write(0);
+        }
+        catch (final IOException e) {
+            ok = false;
+        }
+        finally {
+            this.pending.clear();
+            this.previousFrame = null;
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+                this.executor = null;
+            }
+        }
+        return super.finish() && ok;
+    }
+
+    /**
+     * writes the encoded frames in order, as long as they are done or more
+     * than window frames are pending.
+     */
+    private void write(final int window) throws IOException {
+        final OutputStream out = this.out;
+        try {
+            while (!this.pending.isEmpty()
+                    && (this.pending.size() > window || this.pending.getFirst()
+                            .isDone())) {
+                out.write(this.pending.removeFirst().get());
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while encoding frames");
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * a {@link PngWriter} which deflates on a pool of threads, the way pigz does:
+ * the scanline data is cut into segments which are compressed independently,
+ * each primed with the last 32k of the segment before as dictionary and ended
+ * with a sync flush on a byte boundary, so the compressed segments just
+ * concatenate into one deflate stream. the zlib header and the adler32 check
+ * value around it are written here, and the segments go out in order as IDAT
+ * chunks. the rows are filtered by {@link PngWriter} on the calling thread,
+ * only deflating runs on the pool.
+ */
+public class ParallelPngWriter extends PngWriter {
+
+    static final int                         SEGMENT    = 1 << 17;
+
+    static final int                         DICTIONARY = 1 << 15;
+
+    private final int                        parallelism;
+
+    private final ExecutorService            executor;
+
+    private final LinkedList<Future<byte[]>> pending    = new LinkedList<Future<byte[]>>();
+
+    private final Adler32                    adler      = new Adler32();
+
+    /** compressed data waiting for a full IDAT chunk */
+    private final byte[]                     chunk      = new byte[CHUNK_SIZE];
+
+    private int                              chunkLength;
+
+    private byte[]                           segment    = new byte[SEGMENT];
+
+    private int                              segmentLength;
+
+    private byte[]                           previous;
+
+    public ParallelPngWriter(final OutputStream out, final int width,
+            final int height, final int parallelism) throws IOException {
+        super(out, width, height);
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+        this.executor = Executors.newFixedThreadPool(this.parallelism,
+                                                     new DaemonThreadFactory("png-deflater"));
+        // zlib header: deflate with 32k window, default compression
+        this.chunk[this.chunkLength++] = 0x78;
+        this.chunk[this.chunkLength++] = (byte) 0x9c;
+    }
+
+    @Override
+    protected void deflate(final byte[] data, int offset, int length)
+            throws IOException {
+        this.adler.update(data, offset, length);
+        while (length > 0) {
+            final int count = Math.min(length, SEGMENT - this.segmentLength);
+            System.arraycopy(data,
+                             offset,
+                             this.segment,
+                             this.segmentLength,
+                             count);
+            this.segmentLength += count;
+            offset += count;
+            length -= count;
+            if (this.segmentLength == SEGMENT) {
+                submit(false);
+            }
+        }
+    }
+
+    @Override
+    protected void finishData() throws IOException {
+        try {
+            submit(true);
+            drain(0);
+            final byte[] check = new byte[4];
+            writeInt(check, 0, (int) this.adler.getValue());
+            write(check, 0, check.length);
+            if (this.chunkLength > 0) {
+                writeChunk(this.out, "IDAT", this.chunk, 0, this.chunkLength);
+            }
+        }
+        finally {
+            this.executor.shutdownNow();
+        }
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] segment = this.segment;
+        final int length = this.segmentLength;
+        final byte[] dictionary = this.previous;
+        this.pending.add(this.executor.submit(new Callable<byte[]>() {
+
+            public byte[] call() {
+                return compress(segment, length, dictionary, last);
+            }
+        }));
+        this.previous = segment;
+        this.segment = new byte[SEGMENT];
+        this.segmentLength = 0;
+        // keep the workers busy but do not buffer more segments than needed
+        drain(2 * this.parallelism);
+    }
+
+    /**
+     * raw deflate of one segment, ending with a sync flush or for the last
+     * segment with the final block.
+     */
+    static byte[] compress(final byte[] segment, final int length,
+            final byte[] dictionary, final boolean last) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION,
+                true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary,
+                                       dictionary.length - DICTIONARY,
+                                       DICTIONARY);
+            }
+            deflater.setInput(segment, 0, length);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2);
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            else {
+                int count;
+                do {
+                    count = deflater.deflate(buffer,
+                                             0,
+                                             buffer.length,
+                                             Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                }
+                while (count == buffer.length);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * writes the compressed segments in order, as long as they are done or
+     * more than window segments are pending.
+     */
+    private void drain(final int window) throws IOException {
+        try {
+            while (!this.pending.isEmpty()
+                    && ((this.pending.size() > window) || this.pending.getFirst()
+                            .isDone())) {
+                final byte[] data = this.pending.removeFirst().get();
+                write(data, 0, data.length);
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while deflating");
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * appends compressed data, writing an IDAT chunk whenever one is full.
+     */
+    private void write(final byte[] data, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            final int count = Math.min(length, CHUNK_SIZE - this.chunkLength);
+            System.arraycopy(data, offset, this.chunk, this.chunkLength, count);
+            this.chunkLength += count;
+            offset += count;
+            length -= count;
+            if (this.chunkLength == CHUNK_SIZE) {
+                writeChunk(this.out, "IDAT", this.chunk, 0, CHUNK_SIZE);
+                this.chunkLength = 0;
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@
  */
 package de.saumya.fractals;
 
+import java.io.IOException;
+
 abstract public class PixelProducer {
     protected final int frames;
     protected int       width;
@@ -15,6 +17,10 @@ abstract public class PixelProducer {
     }
 
     public int[] produce(final int frame) {
+        if ((long) this.width * this.height > Integer.MAX_VALUE) {
+            throw new IllegalStateException(this.width + "x" + this.height
+                    + " pixels do not fit into an int[], produce into a PixelSink");
+        }
         final int pixels[] = new int[this.width * this.height];
         produce(frame, pixels);
         return pixels;
@@ -22,4 +28,48 @@ abstract public class PixelProducer {
 
     protected abstract void produce(int frame, int[] pixels);
 
+    /**
+     * produces a frame into the sink in bands of the given number of rows.
+     * the frame is produced once as a whole and handed out band by band, a
+     * {@link BandedPixelProducer} produces one band at a time instead.
+     */
+    public void produce(final int frame, final PixelSink sink, final int band)
+            throws IOException {
+        final int[] pixels = produce(frame);
+        for (int y = 0; y < this.height; y += band) {
+            sink.setRows(y,
+                         Math.min(band, this.height - y),
+                         pixels,
+                         y * this.width);
+        }
+    }
+
+    /**
+     * a buffer for bands of the given number of rows of width pixels each,
+     * failing if such a band does not fit into an int[].
+     */
+    protected static int[] rowBuffer(final long width, final int rows) {
+        if (width * rows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(rows + " rows of " + width
+                    + " pixels do not fit into an int[], use fewer rows");
+        }
+        return new int[(int) (width * rows)];
+    }
+
+    /**
+     * all the colors of all frames as ARGB values if they are known up front
+     * and there are at most 256 of them, else null. such frames can be
+     * encoded with a fixed palette instead of quantizing each of them.
+     */
+    public int[] palette() {
+        return null;
+    }
+
+    /**
+     * returns a producer with the same configuration which shares no mutable
+     * state with this one, so both can produce frames concurrently. only a
+     * producer without any mutable state may return itself.
+     */
+    protected abstract PixelProducer fork();
+
 }
\ No newline at end of file
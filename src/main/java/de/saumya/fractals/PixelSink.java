@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.IOException;
+
+/**
+ * receives the pixels of a frame as bands of ARGB rows. rows are addressed
+ * with long coordinates, so a sink is not limited to what fits into one int[].
+ */
+public interface PixelSink {
+
+    long width();
+
+    long height();
+
+    /**
+     * stores rows [y, y + rows) taken from pixels, starting at offset with
+     * width pixels per row.
+     */
+    void setRows(long y, int rows, int[] pixels, int offset) throws IOException;
+}
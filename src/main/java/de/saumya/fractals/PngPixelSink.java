@@ -0,0 +1,39 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.IOException;
+
+/**
+ * passes the rows straight on to a {@link PngWriter}, so they must arrive top
+ * to bottom.
+ */
+public class PngPixelSink implements PixelSink {
+
+    private final PngWriter png;
+
+    private long            next;
+
+    public PngPixelSink(final PngWriter png) {
+        this.png = png;
+    }
+
+    public long width() {
+        return this.png.width;
+    }
+
+    public long height() {
+        return this.png.height;
+    }
+
+    public void setRows(final long y, final int rows, final int[] pixels,
+            final int offset) throws IOException {
+        if (y != this.next) {
+            throw new IllegalStateException("expected row " + this.next
+                    + " but got " + y);
+        }
+        this.png.writeRows(pixels, offset, rows);
+        this.next += rows;
+    }
+}
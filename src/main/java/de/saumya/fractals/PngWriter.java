@@ -0,0 +1,337 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * writes a true color PNG with alpha row band by row band. the rows are
+ * filtered and deflated as they arrive and the compressed data goes out in
+ * IDAT chunks, so memory stays bounded by the band the caller hands in,
+ * independent of the image size. like libpng leaves indexed images
+ * unfiltered, rows of at most 256 colors are not filtered, they deflate best
+ * as they are. every other row gets the filter type which makes its bytes
+ * smallest in absolute value.
+ *
+ * <pre>
+ *     PngWriter png = new PngWriter(out, width, height);
+ *     for (...) {
+ *         png.writeRows(argb, 0, rows);
+ *     }
+ *     png.finish();
+ * </pre>
+ */
+public class PngWriter {
+
+    static final byte[]          SIGNATURE  = { (byte) 0x89, 'P', 'N', 'G',
+            '\r', '\n', 0x1a, '\n'       };
+
+    static final int             CHUNK_SIZE = 1 << 16;
+
+    /** bytes per pixel */
+    static final int             BPP        = 4;
+
+    static final int             NONE       = 0;
+
+    static final int             SUB        = 1;
+
+    static final int             UP         = 2;
+
+    static final int             AVERAGE    = 3;
+
+    static final int             PAETH      = 4;
+
+    /** up to this many colors a row is not filtered */
+    static final int             FEW_COLORS = 256;
+
+    protected final OutputStream out;
+
+    protected final int          width;
+
+    protected final int          height;
+
+    private Deflater             deflater;
+
+    private final byte[]         scanline;
+
+    /** the unfiltered current row */
+    private byte[]               row;
+
+    /** the unfiltered row above, all zero above the first row */
+    private byte[]               prior;
+
+    /** hash set of the colors of a row, 0 for empty slots */
+    private final long[]         colors     = new long[2 * FEW_COLORS];
+
+    private final byte[]         buffer     = new byte[CHUNK_SIZE];
+
+    private int                  rows;
+
+    public PngWriter(final OutputStream out, final int width, final int height)
+            throws IOException {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.scanline = new byte[scanlineLength(width)];
+        this.row = new byte[BPP * width];
+        this.prior = new byte[BPP * width];
+        out.write(SIGNATURE);
+        writeChunk(out, "IHDR", header(width, height));
+    }
+
+    /**
+     * appends rows of ARGB pixels, each row width pixels long, starting at
+     * offset.
+     */
+    public void writeRows(final int[] argb, int offset, final int rows)
+            throws IOException {
+        if (this.rows + rows > this.height) {
+            throw new IllegalStateException("more than " + this.height
+                    + " rows");
+        }
+        for (int i = 0; i < rows; i++) {
+            rgba(argb, offset, this.width, this.row);
+            filter(this.row,
+                   this.prior,
+                   this.scanline,
+                   0,
+                   fewColors(argb, offset, this.width, this.colors)
+                           ? NONE
+                           : filterType(this.row, this.prior));
+            deflate(this.scanline, 0, this.scanline.length);
+            final byte[] prior = this.prior;
+            this.prior = this.row;
+            this.row = prior;
+            offset += this.width;
+        }
+        this.rows += rows;
+    }
+
+    /**
+     * writes the remaining compressed data and the end of the image. the
+     * stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (this.rows != this.height) {
+            throw new IllegalStateException("only " + this.rows + " of "
+                    + this.height + " rows written");
+        }
+        finishData();
+        writeChunk(this.out, "IEND", new byte[0]);
+        this.out.flush();
+    }
+
+    /**
+     * compresses scanline data and writes what is ready as IDAT chunks.
+     */
+    protected void deflate(final byte[] data, final int offset,
+            final int length) throws IOException {
+        if (this.deflater == null) {
+            this.deflater = new Deflater();
+        }
+        this.deflater.setInput(data, offset, length);
+        while (!this.deflater.needsInput()) {
+            writeIDAT();
+        }
+    }
+
+    /**
+     * writes the rest of the compressed data as IDAT chunks.
+     */
+    protected void finishData() throws IOException {
+        if (this.deflater == null) {
+            this.deflater = new Deflater();
+        }
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            writeIDAT();
+        }
+        this.deflater.end();
+    }
+
+    private void writeIDAT() throws IOException {
+        final int length = this.deflater.deflate(this.buffer);
+        if (length > 0) {
+            writeChunk(this.out, "IDAT", this.buffer, 0, length);
+        }
+    }
+
+    static int scanlineLength(final int width) {
+        return 1 + BPP * width;
+    }
+
+    /**
+     * converts width ARGB pixels into RGBA bytes.
+     */
+    static void rgba(final int[] argb, final int offset, final int width,
+            final byte[] row) {
+        int index = 0;
+        for (int x = offset; x < offset + width; x++) {
+            final int pixel = argb[x];
+            row[index++] = (byte) (pixel >>> 16);
+            row[index++] = (byte) (pixel >>> 8);
+            row[index++] = (byte) pixel;
+            row[index++] = (byte) (pixel >>> 24);
+        }
+    }
+
+    /**
+     * true if the width pixels at offset have at most {@link #FEW_COLORS}
+     * distinct colors, counted in colors.
+     */
+    static boolean fewColors(final int[] argb, final int offset,
+            final int width, final long[] colors) {
+        Arrays.fill(colors, 0);
+        final int mask = colors.length - 1;
+        int count = 0;
+        for (int x = offset; x < offset + width; x++) {
+            final long entry = (argb[x] & 0xffffffffl) | (1l << 32);
+            int slot = (argb[x] * 0x9e3779b9) >>> 16 & mask;
+            while (colors[slot] != 0 && colors[slot] != entry) {
+                slot = (slot + 1) & mask;
+            }
+            if (colors[slot] == 0) {
+                if (++count > FEW_COLORS) {
+                    return false;
+                }
+                colors[slot] = entry;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the filter type for row whose bytes, taken as signed, have the smallest
+     * sum of absolute values.
+     */
+    static int filterType(final byte[] row, final byte[] prior) {
+        long none = 0;
+        long sub = 0;
+        long up = 0;
+        long average = 0;
+        long paeth = 0;
+        for (int i = 0; i < row.length; i++) {
+            final int x = row[i] & 0xff;
+            final int a = i < BPP ? 0 : row[i - BPP] & 0xff;
+            final int b = prior[i] & 0xff;
+            final int c = i < BPP ? 0 : prior[i - BPP] & 0xff;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - ((a + b) >>> 1)));
+            paeth += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+        int type = NONE;
+        long best = none;
+        if (sub < best) {
+            type = SUB;
+            best = sub;
+        }
+        if (up < best) {
+            type = UP;
+            best = up;
+        }
+        if (average < best) {
+            type = AVERAGE;
+            best = average;
+        }
+        if (paeth < best) {
+            type = PAETH;
+        }
+        return type;
+    }
+
+    /**
+     * writes the filter type and the bytes of row filtered against the row
+     * above into scanline at index.
+     */
+    static void filter(final byte[] row, final byte[] prior,
+            final byte[] scanline, final int index, final int type) {
+        scanline[index] = (byte) type;
+        for (int i = 0, j = index + 1; i < row.length; i++, j++) {
+            final int x = row[i] & 0xff;
+            final int a = i < BPP ? 0 : row[i - BPP] & 0xff;
+            final int b = prior[i] & 0xff;
+            switch (type) {
+            case NONE:
+                scanline[j] = (byte) x;
+                break;
+            case SUB:
+                scanline[j] = (byte) (x - a);
+                break;
+            case UP:
+                scanline[j] = (byte) (x - b);
+                break;
+            case AVERAGE:
+                scanline[j] = (byte) (x - ((a + b) >>> 1));
+                break;
+            default:
+                scanline[j] = (byte) (x - paeth(a,
+                                                b,
+                                                i < BPP ? 0 : prior[i - BPP] & 0xff));
+            }
+        }
+    }
+
+    /**
+     * the one of left, above and upper left which is closest to
+     * left + above - upper left.
+     */
+    static int paeth(final int a, final int b, final int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    static byte[] header(final int width, final int height) {
+        final byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 6; // color type true color with alpha
+        header[10] = 0; // compression deflate
+        header[11] = 0; // filter method adaptive
+        header[12] = 0; // no interlace
+        return header;
+    }
+
+    static void writeChunk(final OutputStream out, final String type,
+            final byte[] data) throws IOException {
+        writeChunk(out, type, data, 0, data.length);
+    }
+
+    static void writeChunk(final OutputStream out, final String type,
+            final byte[] data, final int offset, final int length)
+            throws IOException {
+        final byte[] head = new byte[8];
+        writeInt(head, 0, length);
+        for (int i = 0; i < 4; i++) {
+            head[4 + i] = (byte) type.charAt(i);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(head, 4, 4);
+        crc.update(data, offset, length);
+        final byte[] tail = new byte[4];
+        writeInt(tail, 0, (int) crc.getValue());
+        out.write(head);
+        out.write(data, offset, length);
+        out.write(tail);
+    }
+
+    static void writeInt(final byte[] data, final int offset, final int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * renders a frame band by band into a {@link MappedPixelSink}. the bands go
+ * top to bottom, so what is done is always the rows above a cursor. after
+ * each band the raster is forced to disk and a small checkpoint file next to
+ * it records the cursor, replaced by an atomic move, so an interrupted render
+ * picks up at the first missing band when started again with the same raster
+ * file.
+ * <p>
+ * the gasket derives the tuple of every pixel from its row and column, so a
+ * band of pp^k rows starting at a multiple of pp^k is the block of tuple
+ * values sharing one prefix of the high y digits. the row cursor then names
+ * the completed digit prefix blocks, and no tuple state needs saving.
+ */
+public class ResumableRender {
+
+    private final BandedPixelProducer producer;
+
+    private final File                raster;
+
+    private final File                checkpoint;
+
+    private final int                 band;
+
+    public ResumableRender(final BandedPixelProducer producer,
+            final File raster, final int band) {
+        this.producer = producer;
+        this.raster = raster;
+        this.checkpoint = new File(raster.getPath() + ".checkpoint");
+        this.band = band;
+    }
+
+    /**
+     * renders the missing bands of the frame and returns the complete raster,
+     * to be closed by the caller.
+     */
+    public MappedPixelSink render(final int frame) throws IOException {
+        final int width = this.producer.width;
+        final int height = this.producer.height;
+        long cursor = load(frame);
+        final MappedPixelSink sink = MappedPixelSink.open(this.raster,
+                                                          width,
+                                                          height);
+        try {
+            final int[] pixels = PixelProducer.rowBuffer(width,
+                                                         Math.min(this.band,
+                                                                  height));
+            while (cursor < height) {
+                final int rows = (int) Math.min(this.band, height - cursor);
+                this.producer.produceRows(frame, cursor, rows, pixels);
+                sink.setRows(cursor, rows, pixels, 0);
+                sink.force();
+                cursor += rows;
+                save(frame, cursor);
+            }
+        }
+        catch (final IOException e) {
+            sink.close();
+            throw e;
+        }
+        catch (final RuntimeException e) {
+            sink.close();
+            throw e;
+        }
+        return sink;
+    }
+
+    /**
+     * the first row not rendered by a previous run, or 0 if there was no run
+     * for this raster, frame and geometry.
+     */
+    private long load(final int frame) throws IOException {
+        if (!this.checkpoint.exists() || !this.raster.exists()) {
+            return 0;
+        }
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(this.checkpoint);
+        try {
+            properties.load(in);
+        }
+        finally {
+            in.close();
+        }
+        if (!geometry(frame).equals(properties.getProperty("geometry"))) {
+            return 0;
+        }
+        final long cursor = Long.parseLong(properties.getProperty("cursor",
+                                                                  "0"));
+        if (cursor < 0 || cursor > this.producer.height
+                || (cursor % this.band != 0 && cursor != this.producer.height)) {
+            return 0;
+        }
+        return cursor;
+    }
+
+    /**
+     * records the first row after the completed bands.
+     */
+    private void save(final int frame, final long cursor) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("geometry", geometry(frame));
+        properties.setProperty("cursor", Long.toString(cursor));
+        final File tmp = new File(this.checkpoint.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, "completed rows of " + this.raster.getName());
+        }
+        finally {
+            out.close();
+        }
+        // replaces the old checkpoint in one step, a crash leaves either one
+        Files.move(tmp.toPath(),
+                   this.checkpoint.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String geometry(final int frame) {
+        return this.producer.width + "x" + this.producer.height + " band "
+                + this.band + " frame " + frame + " of "
+                + this.producer.frames;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+/**
+ * a {@link PixelProducer} whose frames have all rows identical. only the
+ * first row gets produced, all the other rows are copies of it.
+ */
+public abstract class RowInvariantPixelProducer extends BandedPixelProducer {
+
+    public RowInvariantPixelProducer(final int width, final int height,
+            final int frames) {
+        super(width, height, frames);
+    }
+
+    /**
+     * produces the first row of a frame into pixels[0] to pixels[width - 1].
+     */
+    protected abstract void produceRow(int frame, int[] pixels);
+
+    @Override
+    protected void produce(final int frame, final int[] pixels) {
+        produceRow(frame, pixels);
+        replicateRow(pixels, this.height);
+    }
+
+    @Override
+    protected void produceRows(final int frame, final long y,
+            final int rows, final int[] pixels) {
+        produceRow(frame, pixels);
+        replicateRow(pixels, rows);
+    }
+
+    /**
+     * copies the first row of pixels into the following rows - 1 rows,
+     * doubling the copied block with each step.
+     */
+    protected void replicateRow(final int[] pixels, final int rows) {
+        final int length = this.width * rows;
+        for (int done = this.width; done < length; done <<= 1) {
+            System.arraycopy(pixels, 0, pixels, done, Math.min(done, length
+                    - done));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * cuts a frame into tiles, row of tiles by row of tiles, and hands them to a
+ * {@link TileWriter}. each tile is copied into its image a row at a time and
+ * encoded on a pool of threads, the encoded tiles are written in tile order on
+ * the calling thread. only whole tiles are exported, what is left at the right
+ * and bottom edge of the frame when its size is no multiple of the tile size
+ * is dropped.
+ */
+public class TileExporter {
+
+    public interface TileWriter<T> {
+
+        /** encodes a tile, called on the worker threads */
+        T encode(int index, BufferedImage tile) throws IOException;
+
+        /** writes an encoded tile, called on the calling thread in tile order */
+        void write(int index, T encoded) throws IOException;
+    }
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final int parallelism;
+
+    public TileExporter(final int tileWidth, final int tileHeight,
+            final int parallelism) {
+        if (tileWidth < 1 || tileHeight < 1) {
+            throw new IllegalArgumentException("illegal tile size: "
+                    + tileWidth + "x" + tileHeight);
+        }
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.parallelism = parallelism < 1 ? 1 : parallelism;
+    }
+
+    /**
+     * exports the ARGB pixels of a width x height frame, row by row.
+     * 
+     * @return the number of tiles written, (width / tileWidth) * (height /
+     *         tileHeight)
+     */
+    public <T> int export(final int[] pixels, final int width,
+            final int height, final TileWriter<T> writer) throws IOException {
+        final int columns = width / this.tileWidth;
+        final int count = columns * (height / this.tileHeight);
+        if (this.parallelism == 1) {
+            for (int i = 0; i < count; i++) {
+                writer.write(i, writer.encode(i, tile(pixels,
+                                                      width,
+                                                      columns,
+                                                      i)));
+            }
+            return count;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(this.parallelism,
+                                                                      new DaemonThreadFactory("tile-exporter"));
+        // keep the workers busy but do not buffer more tiles than needed
+        final int window = 2 * this.parallelism;
+        final LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+        int next = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                while (pending.size() < window && next < count) {
+                    final int index = next++;
+                    pending.add(executor.submit(new Callable<T>() {
+
+                        public T call() throws IOException {
+                            return writer.encode(index, tile(pixels,
+                                                             width,
+                                                             columns,
+                                                             index));
+                        }
+                    }));
+                }
+                writer.write(i, pending.removeFirst().get());
+            }
+            return count;
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while exporting tiles");
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * copies the tile with the given index row by row into the backing array
+     * of a new image.
+     */
+    private BufferedImage tile(final int[] pixels, final int width,
+            final int columns, final int index) {
+        final int x = (index % columns) * this.tileWidth;
+        final int y = (index / columns) * this.tileHeight;
+        final BufferedImage tile = new BufferedImage(this.tileWidth,
+                this.tileHeight,
+                BufferedImage.TYPE_INT_ARGB);
+        final int[] data = pixels(tile);
+        for (int i = 0; i < this.tileHeight; i++) {
+            System.arraycopy(pixels,
+                             (y + i) * width + x,
+                             data,
+                             i * this.tileWidth,
+                             this.tileWidth);
+        }
+        return tile;
+    }
+
+    /**
+     * the ARGB pixels backing a tile as handed to
+     * {@link TileWriter#encode(int, BufferedImage)}, row by row.
+     */
+    public static int[] pixels(final BufferedImage tile) {
+        return ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * writes a frame as a DeepZoom tile pyramid: name.dzi plus
+ * name_files/level/column_row.png, where the highest level is the full frame
+ * and every level below halves the one above down to a single pixel.
+ * <p>
+ * the frame is produced once in bands of one tile row. each level cuts its
+ * band into tiles and downsamples it into the level below, so the whole
+ * pyramid costs about one base level render plus a third in downsampling and
+ * memory stays at one tile row per level.
+ */
+public class TilePyramid {
+
+    private final File   directory;
+
+    private final String name;
+
+    private final int    tileSize;
+
+    public TilePyramid(final File directory, final String name,
+            final int tileSize) {
+        if (tileSize < 2 || tileSize % 2 != 0) {
+            throw new IllegalArgumentException("tile size must be even: "
+                    + tileSize);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.tileSize = tileSize;
+    }
+
+    public void write(final PixelProducer producer, final int frame)
+            throws IOException {
+        final int width = producer.width;
+        final int height = producer.height;
+        int maxLevel = 0;
+        while ((1l << maxLevel) < Math.max(width, height)) {
+            maxLevel++;
+        }
+        LevelSink level = null;
+        for (int i = 0; i <= maxLevel; i++) {
+            final int shift = maxLevel - i;
+            level = new LevelSink(i,
+                    (int) ((width + (1l << shift) - 1) >> shift),
+                    (int) ((height + (1l << shift) - 1) >> shift),
+                    level);
+        }
+        producer.produce(frame, level, this.tileSize);
+        writeDescriptor(width, height);
+    }
+
+    private void writeDescriptor(final int width, final int height)
+            throws IOException {
+        final Writer out = new OutputStreamWriter(new FileOutputStream(new File(this.directory,
+                this.name + ".dzi")), "UTF-8");
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\""
+                    + this.tileSize + "\" Overlap=\"0\" Format=\"png\">\n");
+            out.write("  <Size Width=\"" + width + "\" Height=\"" + height
+                    + "\"/>\n");
+            out.write("</Image>\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * one level of the pyramid, buffering one tile row.
+     */
+    class LevelSink implements PixelSink {
+
+        private final int       width;
+
+        private final int       height;
+
+        private final LevelSink below;
+
+        private final int[]     band;
+
+        private final int[]     half;
+
+        private final File      directory;
+
+        /** first row of the buffered band */
+        private long            y;
+
+        private int             rows;
+
+        LevelSink(final int level, final int width, final int height,
+                final LevelSink below) {
+            this.width = width;
+            this.height = height;
+            this.below = below;
+            this.band = PixelProducer.rowBuffer(width,
+                                                TilePyramid.this.tileSize);
+            this.half = below == null
+                    ? null
+                    : PixelProducer.rowBuffer(below.width,
+                                              TilePyramid.this.tileSize / 2);
+            this.directory = new File(new File(TilePyramid.this.directory,
+                    TilePyramid.this.name + "_files"), Integer.toString(level));
+        }
+
+        public long width() {
+            return this.width;
+        }
+
+        public long height() {
+            return this.height;
+        }
+
+        public void setRows(final long y, final int rows, final int[] pixels,
+                final int offset) throws IOException {
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(pixels,
+                                 offset + i * this.width,
+                                 this.band,
+                                 this.rows * this.width,
+                                 this.width);
+                this.rows++;
+                if (this.rows == TilePyramid.this.tileSize
+                        || this.y + this.rows == this.height) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            final int tileSize = TilePyramid.this.tileSize;
+            if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+                throw new IOException("can not create " + this.directory);
+            }
+            final long row = this.y / tileSize;
+            for (int x = 0, column = 0; x < this.width; x += tileSize, column++) {
+                final int w = Math.min(tileSize, this.width - x);
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(this.directory,
+                        column + "_" + row + ".png")));
+                try {
+                    final PngWriter png = new PngWriter(out, w, this.rows);
+                    final int[] tile = new int[w];
+                    for (int i = 0; i < this.rows; i++) {
+                        System.arraycopy(this.band,
+                                         i * this.width + x,
+                                         tile,
+                                         0,
+                                         w);
+                        png.writeRows(tile, 0, 1);
+                    }
+                    png.finish();
+                }
+                finally {
+                    out.close();
+                }
+            }
+            if (this.below != null) {
+                final int rows = (this.rows + 1) / 2;
+                downsample(rows);
+                this.below.setRows(this.y / 2, rows, this.half, 0);
+            }
+            this.y += this.rows;
+            this.rows = 0;
+        }
+
+        /**
+         * averages each 2x2 block of the band into one pixel of the level
+         * below, repeating the last row or column at odd edges.
+         */
+        private void downsample(final int rows) {
+            final int width = this.below.width;
+            for (int i = 0; i < rows; i++) {
+                final int top = 2 * i * this.width;
+                final int bottom = 2 * i + 1 < this.rows ? top + this.width : top;
+                for (int j = 0; j < width; j++) {
+                    final int left = 2 * j;
+                    final int right = left + 1 < this.width ? left + 1 : left;
+                    this.half[i * width + j] = average(this.band[top + left],
+                                                       this.band[top + right],
+                                                       this.band[bottom + left],
+                                                       this.band[bottom + right]);
+                }
+            }
+        }
+    }
+
+    static int average(final int a, final int b, final int c, final int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff)
+                    + ((c >>> shift) & 0xff) + ((d >>> shift) & 0xff);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+}
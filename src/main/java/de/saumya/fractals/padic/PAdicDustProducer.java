@@ -3,20 +3,30 @@
  */
 package de.saumya.fractals.padic;
 
-import java.awt.Color;
+import java.io.IOException;
 
+import de.saumya.fractals.AnimatedGifEncoder;
 import de.saumya.fractals.ColorMapFactory;
+import de.saumya.fractals.FrameScheduler;
+import de.saumya.fractals.FrameScheduler.FrameConsumer;
+import de.saumya.fractals.ParallelGifEncoder;
 import de.saumya.fractals.PixelProducer;
+import de.saumya.fractals.RowInvariantPixelProducer;
 
-class PAdicDustProducer extends PixelProducer {
+class PAdicDustProducer extends RowInvariantPixelProducer {
+
+    /** shared by all dust producers, sized by -Dfractals.cache.bytes */
+    static final PAdicIntervalCache CACHE   = new PAdicIntervalCache(Long.getLong("fractals.cache.bytes",
+                                                                              16l << 20));
 
     final ColorMapFactory      factory = new ColorMapFactory();
-    final Color[]              colors  = this.factory.map(true, true, true);
+    final int[]                colors  = this.factory.argbMap(true, true, true);
 
     final double               min;
     final double               max;
     final short                anchor;
     final PAdicTupleProjection proj;
+    final PAdicIntervalCache   cache;
 
     PAdicDustProducer(final int width, final int height, final int frames,
             final int p, final int maxIteration, final int k) {
@@ -26,30 +36,97 @@ class PAdicDustProducer extends PixelProducer {
         this.anchor = (short) k;
         this.min = 1;
         this.max = p;
+        this.cache = CACHE;
+    }
+
+    private PAdicDustProducer(final PAdicDustProducer producer) {
+        super(producer.width, producer.height, producer.frames);
+        this.proj = producer.proj.copy();
+        this.anchor = producer.anchor;
+        this.min = producer.min;
+        this.max = producer.max;
+        this.cache = producer.cache;
+    }
+
+    @Override
+    protected PixelProducer fork() {
+        return new PAdicDustProducer(this);
     }
 
-    void setup(final int frame) {
+    @Override
+    public int[] palette() {
+        return this.colors;
+    }
+
+    @Override
+    protected void produceRow(final int frame, final int[] pixels) {
         final int pos = this.anchor;
         final long anchor = this.proj.tuple.maxValue() * pos / this.width;
         final long length = this.proj.tuple.maxValue() * (this.frames - frame)
                 / this.frames;
 
-        this.proj.setup(anchor - length * pos / this.width, anchor + length
-                * (this.width - pos) / this.width);
+        produceInterval(anchor - length * pos / this.width, anchor + length
+                * (this.width - pos) / this.width, pixels);
+        System.err.println("frame " + frame);
     }
 
-    @Override
-    protected void produce(final int frame, final int[] pixels) {
-        int index = 0;
-        setup(frame);
-        for (int y = 0; y < this.height; y++) {
-            this.proj.reset();
-            for (int x = 0; x < this.width; x++) {
-                final int fx = (int) ((this.proj.nextOrder() - this.min) * 255 / (this.max - this.min));
-                pixels[index] = this.colors[fx].getRGB();
-                index++;
+    /**
+     * renders the values [start, end) into the first width pixels. intervals
+     * rendered before, by this or any other dust producer over the same
+     * tuple, come from the cache.
+     */
+    void produceInterval(final long start, final long end, final int[] pixels) {
+        if (this.cache.get(this.proj.index, start, end, pixels, this.width)) {
+            return;
+        }
+        this.proj.setup(start, end);
+        for (int x = 0; x < this.width; x++) {
+            final int fx = (int) ((this.proj.nextOrder() - this.min) * 255 / (this.max - this.min));
+            pixels[x] = this.colors[fx];
+        }
+        this.cache.put(this.proj.index, start, end, pixels, this.width);
+    }
+
+    /**
+     * writes the zoom to the anchor and back out again as a GIF and reports
+     * the interval cache, which serves the way back out.
+     */
+    public static void main(final String... args) throws IOException {
+        final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final int threads = args.length > 1
+                ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        final int width = 800;
+        final int p = 5;
+        final int n = 6;
+
+        final PAdicDustProducer producer = new PAdicDustProducer(width,
+                40,
+                frames,
+                p,
+                n,
+                width / 2);
+
+        final AnimatedGifEncoder encoder = threads > 1
+                ? new ParallelGifEncoder(threads)
+                : new AnimatedGifEncoder();
+        encoder.start("padic-dust-" + p + "-" + n + "-" + frames + ".gif");
+        encoder.setDelay(50);
+        encoder.setRepeat(0);
+        encoder.setPalette(producer.palette());
+        encoder.setDelta(true);
+        new FrameScheduler(producer, threads).produce(new FrameConsumer() {
+
+            public void consume(final int frame, final int[] pixels) {
+                encoder.addFrame(pixels, producer.width, producer.height);
             }
+        });
+        for (int frame = frames - 1; frame >= 0; frame--) {
+            encoder.addFrame(producer.produce(frame),
+                             producer.width,
+                             producer.height);
         }
-        System.err.println("frame " + frame);
+        encoder.finish();
+        System.err.println("interval cache: " + producer.cache);
     }
-}
\ No newline at end of file
+}
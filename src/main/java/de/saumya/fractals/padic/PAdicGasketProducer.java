@@ -3,17 +3,20 @@
  */
 package de.saumya.fractals.padic;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
 
+import com.lowagie.text.BadElementException;
 import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Image;
@@ -21,23 +24,47 @@ import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.PdfWriter;
 
 import de.saumya.fractals.AnimatedGifEncoder;
+import de.saumya.fractals.AnimatedPngEncoder;
+import de.saumya.fractals.BandedPixelProducer;
 import de.saumya.fractals.ColorMapFactory;
+import de.saumya.fractals.FrameScheduler;
+import de.saumya.fractals.FrameScheduler.FrameConsumer;
+import de.saumya.fractals.MappedPixelSink;
+import de.saumya.fractals.ParallelGifEncoder;
+import de.saumya.fractals.ParallelPngWriter;
 import de.saumya.fractals.PixelProducer;
+import de.saumya.fractals.PngPixelSink;
+import de.saumya.fractals.PngWriter;
+import de.saumya.fractals.ResumableRender;
+import de.saumya.fractals.TileExporter;
+import de.saumya.fractals.TileExporter.TileWriter;
+import de.saumya.fractals.TilePyramid;
+
+class PAdicGasketProducer extends BandedPixelProducer {
+    private static final int CHUNK = 1 << 12;
 
-class PAdicGasketProducer extends PixelProducer {
     final ColorMapFactory factory = new ColorMapFactory();
-    final Color[]         colors1 = this.factory.map(true, true, true);
-    final Color[]         colors2 = this.factory.mapInvers(false, true, false);
+    final int[]           colors1 = this.factory.argbMap(true, true, true);
+    final int[]           colors2 = this.factory.argbMapInvers(false,
+                                          true,
+                                          false);
     PAdicTupleProjection  proj;
     double                min     = Double.MAX_VALUE;
     double                max     = Double.MIN_VALUE;
     PAdicTuple            coord;
+    ForkJoinPool          pool;
 
     PAdicGasketProducer(final int frames, final int p, final int pp, final int n) {
         super(0, 0, frames);
         this.coord = new PAdicTuple(n, new short[] { (short) p, (short) pp });
-        this.width = (int) this.coord.maxValue(0, 2);
-        this.height = (int) this.coord.maxValue(1, 2);
+        final long width = this.coord.maxValue(0, 2);
+        final long height = this.coord.maxValue(1, 2);
+        if (width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(width + "x" + height
+                    + " pixels, at most 2^31 - 1 rows and columns");
+        }
+        this.width = (int) width;
+        this.height = (int) height;
         this.proj = new PAdicTupleProjection(new PAdicTuple(n + 0,
                 new short[] { (short) (p * pp) }), (int) this.coord.maxValue());
         do {
@@ -50,31 +77,279 @@ class PAdicGasketProducer extends PixelProducer {
 
     }
 
+    private PAdicGasketProducer(final PAdicGasketProducer producer) {
+        super(producer.width, producer.height, producer.frames);
+        this.coord = producer.coord.copy();
+        this.proj = producer.proj.copy();
+        this.min = producer.min;
+        this.max = producer.max;
+        this.pool = producer.pool;
+    }
+
     @Override
-    protected void produce(final int frame, final int[] pixels) {
-        final int maxX = (int) this.coord.maxValue(0, 2);
+    protected PixelProducer fork() {
+        return new PAdicGasketProducer(this);
+    }
+
+    /**
+     * renders each frame with a fork join pool of the given parallelism, one
+     * task per block of values sharing their highest digits. a parallelism of
+     * one renders sequentially.
+     */
+    void setParallelism(final int parallelism) {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    private int boundery(final int frame) {
         final int frame2 = this.frames / 2;
-        final int boundery = frame2 == 0 ? -1 : 256
+        return frame2 == 0 ? -1 : 256
                 * (frame > frame2 ? this.frames - frame : frame) / frame2;
+    }
+
+    /**
+     * both color maps over the range of orders, for whichever side of the
+     * boundery a frame puts them.
+     */
+    @Override
+    public int[] palette() {
+        final int orders = (int) this.max - (int) this.min + 1;
+        final int[] palette = new int[2 * orders];
+        for (int i = 0; i < orders; i++) {
+            final int order = (int) this.min + i;
+            final int fx = (int) ((order - this.min) * 255 / (this.max - this.min));
+            palette[2 * i] = this.colors1[fx];
+            palette[2 * i + 1] = this.colors2[fx];
+        }
+        return palette;
+    }
+
+    @Override
+    protected void produceRows(final int frame, final long y,
+            final int rows, final int[] pixels) {
+        final int boundery = boundery(frame);
+        // the color of each order for this frame
+        final int[] colors = new int[(int) this.max + 1];
+        for (int order = (int) this.min; order < colors.length; order++) {
+            final int fx = (int) ((order - this.min) * 255 / (this.max - this.min));
+            colors[order] = fx > boundery ? this.colors1[fx] : this.colors2[fx];
+        }
+        if (this.pool == null) {
+            produceRows(colors, y, rows, pixels, 0);
+        }
+        else {
+            this.pool.invoke(new Rows(colors, y, rows, pixels, 0));
+        }
+    }
+
+    /**
+     * walks the rows with x running through the lower half of the digits of
+     * the value tuple, digit i of a value being x_i + p * y_i.
+     */
+    private void produceRows(final int[] colors, final long y,
+            final int rows, final int[] pixels, final int offset) {
+        final int n = this.coord.digits() / 2;
+        final int p = this.coord.radix(0);
+        final int pp = this.coord.radix(1);
+        final PAdicTuple value = this.proj.tuple.copy();
+        final int[] xDigits = new int[n];
+        final int[] yDigits = new int[n];
+        int index = offset;
+        for (long row = y; row < y + rows; row++) {
+            long rest = row;
+            for (int i = 0; i < n; i++, rest /= pp) {
+                xDigits[i] = 0;
+                yDigits[i] = (int) (rest % pp);
+                value.set(i, p * yDigits[i]);
+            }
+            for (int x = 0; x < this.width; x++) {
+                pixels[index++] = colors[value.order()];
+                int i = 0;
+                while (i < n && xDigits[i] == p - 1) {
+                    xDigits[i] = 0;
+                    value.set(i, p * yDigits[i]);
+                    i++;
+                }
+                if (i < n) {
+                    xDigits[i]++;
+                    value.set(i, xDigits[i] + p * yDigits[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void produce(final int frame, final int[] pixels) {
+        final int boundery = boundery(frame);
         System.out.println(boundery);
-        do {
-            final int fx = (int) ((this.proj.nextOrder() - this.min) * 255 / (this.max - this.min));
-            if (fx > boundery) {
-                pixels[(int) (this.coord.xValue() + this.coord.yValue() * maxX)] = this.colors1[fx].getRGB();
+        if (this.pool == null) {
+            this.proj.tuple.set(0);
+            produce(boundery,
+                    pixels,
+                    this.proj.tuple,
+                    this.coord,
+                    this.coord.maxValue());
+        }
+        else {
+            this.pool.invoke(new Block(boundery,
+                    pixels,
+                    0,
+                    this.coord.digits()));
+        }
+    }
+
+    private void produce(final int boundery, final int[] pixels,
+            final PAdicTuple value, final PAdicTuple coord, final long count) {
+        final int maxX = (int) coord.maxValue(0, 2);
+        final int[] orders = new int[(int) Math.min(count, CHUNK)];
+        for (long i = 0; i < count; i += orders.length) {
+            final int length = (int) Math.min(orders.length, count - i);
+            value.orders(orders, 0, length);
+            for (int k = 0; k < length; k++) {
+                final int fx = (int) ((orders[k] - this.min) * 255 / (this.max - this.min));
+                if (fx > boundery) {
+                    pixels[(int) (coord.xValue() + coord.yValue() * maxX)] = this.colors1[fx];
+                }
+                else {
+                    pixels[(int) (coord.xValue() + coord.yValue() * maxX)] = this.colors2[fx];
+                }
+                coord.increment();
+            }
+        }
+    }
+
+    /**
+     * the values [from, from + size) where size covers the lowest digits of the
+     * coordinates, i.e. all values sharing the digits above.
+     */
+    class Block extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private static final int  LEAF             = 1 << 14;
+
+        private final int         boundery;
+        private final int[]       pixels;
+        private final long        from;
+        private final int         digits;
+
+        Block(final int boundery, final int[] pixels, final long from,
+                final int digits) {
+            this.boundery = boundery;
+            this.pixels = pixels;
+            this.from = from;
+            this.digits = digits;
+        }
+
+        @Override
+        protected void compute() {
+            final PAdicTuple coord = PAdicGasketProducer.this.coord;
+            final long size = coord.blockSize(this.digits);
+            if (size <= LEAF || this.digits == 0) {
+                final PAdicTuple cursor = coord.copy();
+                cursor.set(this.from);
+                final PAdicTuple value = PAdicGasketProducer.this.proj.tuple.copy();
+                value.set(this.from);
+                produce(this.boundery, this.pixels, value, cursor, size);
             }
             else {
-                pixels[(int) (this.coord.xValue() + this.coord.yValue() * maxX)] = this.colors2[fx].getRGB();
+                final int radix = coord.radix(this.digits - 1);
+                final long step = size / radix;
+                final Block[] blocks = new Block[radix];
+                for (int i = 0; i < radix; i++) {
+                    blocks[i] = new Block(this.boundery,
+                            this.pixels,
+                            this.from + i * step,
+                            this.digits - 1);
+                }
+                invokeAll(blocks);
             }
+        }
+    }
+
+    /**
+     * the rows [y, y + rows), split in halves down to single rows.
+     */
+    class Rows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[]       colors;
+        private final long        y;
+        private final int         rows;
+        private final int[]       pixels;
+        private final int         offset;
+
+        Rows(final int[] colors, final long y, final int rows,
+                final int[] pixels, final int offset) {
+            this.colors = colors;
+            this.y = y;
+            this.rows = rows;
+            this.pixels = pixels;
+            this.offset = offset;
+        }
 
+        @Override
+        protected void compute() {
+            if (this.rows == 1) {
+                produceRows(this.colors, this.y, 1, this.pixels, this.offset);
+            }
+            else {
+                final int half = this.rows / 2;
+                invokeAll(new Rows(this.colors,
+                                  this.y,
+                                  half,
+                                  this.pixels,
+                                  this.offset),
+                          new Rows(this.colors,
+                                  this.y + half,
+                                  this.rows - half,
+                                  this.pixels,
+                                  this.offset + half
+                                          * PAdicGasketProducer.this.width));
+            }
         }
-        while (this.coord.increment());
+    }
 
+    /**
+     * a PDF image of a tile. opaque tiles are deflated as RGB right here, so
+     * adding them to the document only copies the stream; tiles with alpha go
+     * through iText.
+     */
+    static Image pdfImage(final BufferedImage tile) throws IOException {
+        final int[] argb = TileExporter.pixels(tile);
+        final byte[] rgb = new byte[3 * argb.length];
+        int index = 0;
+        try {
+            for (final int pixel : argb) {
+                if ((pixel >>> 24) != 0xff) {
+                    return Image.getInstance(tile, null);
+                }
+                rgb[index++] = (byte) (pixel >>> 16);
+                rgb[index++] = (byte) (pixel >>> 8);
+                rgb[index++] = (byte) pixel;
+            }
+            final ByteArrayOutputStream data = new ByteArrayOutputStream(rgb.length / 4);
+            final DeflaterOutputStream out = new DeflaterOutputStream(data);
+            out.write(rgb);
+            out.close();
+            final Image img = Image.getInstance(tile.getWidth(),
+                                                tile.getHeight(),
+                                                3,
+                                                8,
+                                                data.toByteArray());
+            img.setDeflated(true);
+            return img;
+        }
+        catch (final BadElementException e) {
+            throw new IOException(e);
+        }
     }
 
     public static void main(final String... args) throws IOException,
             DocumentException {
         final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1;
         final int chunks = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        final int threads = args.length > 2
+                ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
         final int p = 4;
         final int pp = 2;
         final int n = 7;
@@ -86,107 +361,178 @@ class PAdicGasketProducer extends PixelProducer {
                 n);
 
         if (frames == 1) {
+            producer.setParallelism(threads);
 
-            final int[] pixels = producer.produce(0);
-            if (chunks == 0) {
-                final BufferedImage bi = new BufferedImage(producer.width,
-                        producer.height,
-                        BufferedImage.TYPE_INT_ARGB);
-                bi.setRGB(0,
-                          0,
-                          producer.width,
-                          producer.height,
-                          pixels,
-                          0,
-                          producer.width);
-
-                final Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("PNG");
-                final ImageWriter imageWriter = imageWriters.next();
-                final File file = new File("padic-" + p + "-" + pp + "-" + n
-                        + ".png");
-                final ImageOutputStream ios = ImageIO.createImageOutputStream(file);
-                imageWriter.setOutput(ios);
-                imageWriter.write(bi);
+            final String tiles = System.getProperty("fractals.tiles");
+            if (tiles != null) {
+                new TilePyramid(new File(tiles), "padic-" + p + "-" + pp + "-"
+                        + n, Integer.getInteger("fractals.tile", 256)).write(producer,
+                                                                             0);
             }
-            else {
-                final int h = producer.height / p / (chunks == 2 ? p : 1);
-                final int w = producer.width / pp / (chunks == 2 ? pp : 1);
-                int index = 0;
-                Document document = null;
-                Rectangle dim = null;
-                final BufferedImage bi = new BufferedImage(w,
-                        h,
-                        BufferedImage.TYPE_INT_ARGB);
-                for (int y = 0; y < producer.width; y += h) {
-                    for (int x = 0; x < producer.height; x += w) {
-                        for (int i = 0; i < h; i++) {
-                            final int row = (i + y) * producer.height;
-                            for (int j = 0; j < w; j++) {
-                                bi.setRGB(j, i, pixels[row + j + x]);
-                            }
-                        }
-                        if ("pdf".equals(extension)) {
-                            if (document == null) {
-                                document = new Document();
-                                PdfWriter.getInstance(document,
-                                                      new FileOutputStream("padic-"
-                                                              + p
-                                                              + "-"
-                                                              + pp
-                                                              + "-"
-                                                              + n
-                                                              + "."
-                                                              + extension));
-                                dim = document.getPageSize();
-                                document.setMargins(10, 10, 10, 0);
-                                document.open();
+            else if (chunks == 0) {
+                final int band = Integer.getInteger("fractals.band", 64);
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream("padic-"
+                        + p + "-" + pp + "-" + n + ".png"));
+                try {
+                    final PngWriter png = threads > 1
+                            ? new ParallelPngWriter(out,
+                                    producer.width,
+                                    producer.height,
+                                    threads)
+                            : new PngWriter(out,
+                                    producer.width,
+                                    producer.height);
+                    final String raster = System.getProperty("fractals.raster");
+                    if (raster == null) {
+                        producer.produce(0, new PngPixelSink(png), band);
+                    }
+                    else {
+                        // resumable: rerunning continues an interrupted render
+                        final MappedPixelSink sink = new ResumableRender(producer,
+                                new File(raster),
+                                band).render(0);
+                        try {
+                            final int[] rows = rowBuffer(producer.width, band);
+                            for (long y = 0; y < producer.height; y += band) {
+                                final int count = (int) Math.min(band,
+                                                                 producer.height
+                                                                         - y);
+                                sink.getRows(y, count, rows, 0);
+                                png.writeRows(rows, 0, count);
                             }
-                            final Image img = Image.getInstance(bi, null);
-                            img.scaleAbsolute(dim.getWidth() - 20,
-                                              dim.getWidth() - 20);
-                            document.add(img);
-                            document.newPage();
                         }
-                        else {
-                            final Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName(extension.toUpperCase());
-                            final ImageWriter imageWriter = imageWriters.next();
-                            final File file = new File("padic-" + p + "-" + pp
-                                    + "-" + n + "-" + index + "." + extension);
-                            final ImageOutputStream ios = ImageIO.createImageOutputStream(file);
-                            imageWriter.setOutput(ios);
-                            imageWriter.write(bi);
+                        finally {
+                            sink.close();
                         }
-                        index++;
                     }
+                    png.finish();
                 }
-                if (document != null) {
+                finally {
+                    out.close();
+                }
+            }
+            else {
+                final int[] pixels = producer.produce(0);
+                final int h = producer.height / p / (chunks == 2 ? p : 1);
+                final int w = producer.width / pp / (chunks == 2 ? pp : 1);
+                final String name = "padic-" + p + "-" + pp + "-" + n;
+                final TileExporter exporter = new TileExporter(w, h, threads);
+                if ("pdf".equals(extension)) {
+                    final Document document = new Document();
+                    PdfWriter.getInstance(document,
+                                          new FileOutputStream(name + "."
+                                                  + extension));
+                    final Rectangle dim = document.getPageSize();
+                    document.setMargins(10, 10, 10, 0);
+                    document.open();
+                    final int count = exporter.export(pixels,
+                                                      producer.width,
+                                                      producer.height,
+                                                      new TileWriter<Image>() {
+
+                                                          public Image encode(
+                                                                  final int index,
+                                                                  final BufferedImage tile)
+                                                                  throws IOException {
+                                                              final Image img = pdfImage(tile);
+                                                              // keep the aspect ratio of the tile
+                                                              img.scaleToFit(dim.getWidth() - 20,
+                                                                             dim.getHeight() - 20);
+                                                              return img;
+                                                          }
+
+                                                          public void write(
+                                                                  final int index,
+                                                                  final Image img)
+                                                                  throws IOException {
+                                                              try {
+                                                                  document.add(img);
+                                                              }
+                                                              catch (final DocumentException e) {
+                                                                  throw new IOException(e);
+                                                              }
+                                                              document.newPage();
+                                                          }
+                                                      });
                     document.close();
-                    new File("padic-" + p + "-" + pp + "-" + n + "."
-                            + extension).renameTo(new File("padic-" + p + "-"
-                            + pp + "-" + n + "-" + index + "." + extension));
+                    new File(name + "." + extension).renameTo(new File(name
+                            + "-" + count + "." + extension));
+                }
+                else {
+                    exporter.export(pixels,
+                                    producer.width,
+                                    producer.height,
+                                    new TileWriter<byte[]>() {
+
+                                        public byte[] encode(final int index,
+                                                final BufferedImage tile)
+                                                throws IOException {
+                                            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                                            if ("png".equals(extension)) {
+                                                final PngWriter png = new PngWriter(out,
+                                                        tile.getWidth(),
+                                                        tile.getHeight());
+                                                png.writeRows(TileExporter.pixels(tile),
+                                                              0,
+                                                              tile.getHeight());
+                                                png.finish();
+                                            }
+                                            else if (!ImageIO.write(tile,
+                                                                    extension,
+                                                                    out)) {
+                                                throw new IOException("no image writer for "
+                                                        + extension);
+                                            }
+                                            return out.toByteArray();
+                                        }
+
+                                        public void write(final int index,
+                                                final byte[] data)
+                                                throws IOException {
+                                            final OutputStream out = new FileOutputStream(name
+                                                    + "-" + index + "." + extension);
+                                            try {
+                                                out.write(data);
+                                            }
+                                            finally {
+                                                out.close();
+                                            }
+                                        }
+                                    });
                 }
             }
         }
+        else if (Boolean.getBoolean("fractals.apng")) {
+            // lossless animation in full color
+            final AnimatedPngEncoder encoder = new AnimatedPngEncoder(threads);
+            encoder.start("padic-" + p + "-" + pp + "-" + n + "-" + frames
+                    + ".png");
+            encoder.setDelay(200);
+            encoder.setFrameCount(frames);
+            new FrameScheduler(producer, threads).produce(new FrameConsumer() {
+
+                public void consume(final int frame, final int[] pixels) {
+                    encoder.addFrame(pixels, producer.width, producer.height);
+                }
+            });
+            encoder.finish();
+        }
         else {
-            final AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+            final AnimatedGifEncoder encoder = threads > 1
+                    ? new ParallelGifEncoder(threads)
+                    : new AnimatedGifEncoder();
             encoder.start("padic-" + p + "-" + pp + "-" + n + "-" + frames
                     + ".gif");
             encoder.setDelay(200);
             encoder.setRepeat(0);
-            for (int i = 0; i < frames; i++) {
-                final BufferedImage bi = new BufferedImage(producer.width,
-                        producer.height,
-                        BufferedImage.TYPE_INT_ARGB);
-                final int[] pixels = producer.produce(i);
-                bi.setRGB(0,
-                          0,
-                          producer.width,
-                          producer.height,
-                          pixels,
-                          0,
-                          producer.width);
-                encoder.addFrame(bi);
-            }
+            encoder.setPalette(producer.palette());
+            encoder.setDelta(true);
+            new FrameScheduler(producer, threads).produce(new FrameConsumer() {
+
+                public void consume(final int frame, final int[] pixels) {
+                    encoder.addFrame(pixels, producer.width, producer.height);
+                }
+            });
             encoder.finish();
         }
     }
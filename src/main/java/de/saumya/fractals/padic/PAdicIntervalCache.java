@@ -0,0 +1,120 @@
+/**
+ * 
+ */
+package de.saumya.fractals.padic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * rendered pixel rows of value intervals, keyed by the value space, the
+ * interval and the row width. the least recently used rows get evicted once
+ * the rows exceed the byte budget.
+ */
+class PAdicIntervalCache {
+
+    /** rough per entry cost of key, map entry and array header */
+    private static final int          OVERHEAD = 96;
+
+    private final long                budget;
+
+    private final Map<Key, int[]>     rows     = new LinkedHashMap<Key, int[]>(16,
+                                                       0.75f,
+                                                       true);
+
+    private long                      bytes;
+
+    private long                      hits;
+
+    private long                      misses;
+
+    PAdicIntervalCache(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * copies the cached row into pixels and returns true, or returns false if
+     * the row is not cached.
+     */
+    synchronized boolean get(final Object space, final long start,
+            final long end, final int[] pixels, final int width) {
+        final int[] row = this.rows.get(new Key(space, start, end, width));
+        if (row == null) {
+            this.misses++;
+            return false;
+        }
+        this.hits++;
+        System.arraycopy(row, 0, pixels, 0, width);
+        return true;
+    }
+
+    synchronized void put(final Object space, final long start,
+            final long end, final int[] pixels, final int width) {
+        final long size = 4l * width + OVERHEAD;
+        if (size > this.budget) {
+            return;
+        }
+        final int[] row = new int[width];
+        System.arraycopy(pixels, 0, row, 0, width);
+        if (this.rows.put(new Key(space, start, end, width), row) == null) {
+            this.bytes += size;
+        }
+        final Iterator<int[]> eldest = this.rows.values().iterator();
+        while (this.bytes > this.budget) {
+            this.bytes -= 4l * eldest.next().length + OVERHEAD;
+            eldest.remove();
+        }
+    }
+
+    synchronized long hits() {
+        return this.hits;
+    }
+
+    synchronized long misses() {
+        return this.misses;
+    }
+
+    synchronized long bytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits " + this.hits + " misses " + this.misses + " bytes "
+                + this.bytes + "/" + this.budget;
+    }
+
+    static class Key {
+        private final Object space;
+        private final long   start;
+        private final long   end;
+        private final int    width;
+
+        Key(final Object space, final long start, final long end,
+                final int width) {
+            this.space = space;
+            this.start = start;
+            this.end = end;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return this.space == other.space && this.start == other.start
+                    && this.end == other.end && this.width == other.width;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(this.space);
+            result = 31 * result + (int) (this.start ^ (this.start >>> 32));
+            result = 31 * result + (int) (this.end ^ (this.end >>> 32));
+            return 31 * result + this.width;
+        }
+    }
+}
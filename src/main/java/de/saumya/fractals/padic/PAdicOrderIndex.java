@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package de.saumya.fractals.padic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * prefix sums of {@link PAdicTuple#order()}, built once per set of radices and
+ * shared by all projections over such a tuple. when the value space is too
+ * large for a flat table the prefix sums are stored per block of the lowest
+ * digits and the remainder inside a block is resolved with
+ * {@link PAdicOrderSum} over those lowest digits only.
+ */
+class PAdicOrderIndex {
+
+    static final int                                 MAX_ENTRIES = 1 << 20;
+
+    private static final Map<String, PAdicOrderIndex> INDEXES     = new HashMap<String, PAdicOrderIndex>();
+
+    static synchronized PAdicOrderIndex of(final PAdicTuple tuple) {
+        final int[] radix = new int[tuple.digits()];
+        for (int i = 0; i < radix.length; i++) {
+            radix[i] = tuple.radix(i);
+        }
+        final String key = Arrays.toString(radix);
+        PAdicOrderIndex index = INDEXES.get(key);
+        if (index == null) {
+            index = new PAdicOrderIndex(new PAdicOrderSum(tuple));
+            INDEXES.put(key, index);
+        }
+        return index;
+    }
+
+    final PAdicOrderSum  sums;
+
+    /** number of lowest digits resolved by the digit sums */
+    private final int    level;
+
+    private final long   stride;
+
+    private final long   maxValue;
+
+    /** prefix[b] = sum of the orders over [0, b * stride) */
+    private final long[] prefix;
+
+    /** alphabet of the digits above level for each block */
+    private final long[] masks;
+
+    PAdicOrderIndex(final PAdicOrderSum sums) {
+        this.sums = sums;
+        this.maxValue = sums.maxValue();
+        int level = 0;
+        while (this.maxValue / sums.count(level) >= MAX_ENTRIES) {
+            level++;
+        }
+        this.level = level;
+        this.stride = sums.count(level);
+
+        final int n = sums.digits();
+        final int blocks = (int) (this.maxValue / this.stride);
+        final int[] digits = new int[n];
+        this.prefix = new long[blocks + 1];
+        this.masks = level == 0 ? null : new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            long mask = 0;
+            for (int i = level; i < n; i++) {
+                mask |= 1l << digits[i];
+            }
+            if (this.masks != null) {
+                this.masks[b] = mask;
+            }
+            this.prefix[b + 1] = this.prefix[b] + sums.free(level, mask);
+            for (int i = level; i < n && ++digits[i] == sums.radix(i); i++) {
+                digits[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * true if every query is a plain table lookup.
+     */
+    boolean isFlat() {
+        return this.level == 0;
+    }
+
+    /**
+     * sum of the orders of all values in [start, end). values beyond the
+     * maximum value wrap around like {@link PAdicTuple#increment()}.
+     */
+    long sum(final long start, final long end) {
+        return prefix(end) - prefix(start);
+    }
+
+    /**
+     * sum of the orders of all values in [0, value).
+     */
+    long prefix(final long value) {
+        if (value >= this.maxValue) {
+            return (value / this.maxValue) * this.prefix[this.prefix.length - 1]
+                    + prefix(value % this.maxValue);
+        }
+        final int block = (int) (value / this.stride);
+        final long offset = value - block * this.stride;
+        if (offset == 0) {
+            return this.prefix[block];
+        }
+        return this.prefix[block]
+                + this.sums.prefix(offset, this.level, this.masks[block]);
+    }
+}
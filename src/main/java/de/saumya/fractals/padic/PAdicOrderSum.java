@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package de.saumya.fractals.padic;
+
+/**
+ * sums {@link PAdicTuple#order()} over a range of values by walking the mixed
+ * radix digits of the range boundaries instead of every value in between. a
+ * query costs O(n * p) where n is the number of digits and p the largest
+ * radix.
+ */
+class PAdicOrderSum {
+
+    private final int      n;
+
+    private final int[]    radix;
+
+    /** number of distinct digit values, i.e. the largest radix */
+    private final int      base;
+
+    /** count[i] = number of values of the lowest i digits */
+    private final long[]   count;
+
+    /** avoid[i][c] = number of values of the lowest i digits without digit c */
+    private final long[][] avoid;
+
+    private final long     maxValue;
+
+    private final long     total;
+
+    PAdicOrderSum(final PAdicTuple tuple) {
+        this.n = tuple.digits();
+        this.radix = new int[this.n];
+        int base = 0;
+        for (int i = 0; i < this.n; i++) {
+            this.radix[i] = tuple.radix(i);
+            base = this.radix[i] > base ? this.radix[i] : base;
+        }
+        this.base = base;
+        this.count = new long[this.n + 1];
+        this.avoid = new long[this.n + 1][base];
+        this.count[0] = 1;
+        for (int c = 0; c < base; c++) {
+            this.avoid[0][c] = 1;
+        }
+        for (int i = 0; i < this.n; i++) {
+            this.count[i + 1] = this.count[i] * this.radix[i];
+            for (int c = 0; c < base; c++) {
+                this.avoid[i + 1][c] = this.avoid[i][c]
+                        * (c < this.radix[i] ? this.radix[i] - 1 : this.radix[i]);
+            }
+        }
+        this.maxValue = this.count[this.n];
+        this.total = free(this.n, 0);
+    }
+
+    int base() {
+        return this.base;
+    }
+
+    int digits() {
+        return this.n;
+    }
+
+    int radix(final int i) {
+        return this.radix[i];
+    }
+
+    /**
+     * number of values of the lowest i digits.
+     */
+    long count(final int i) {
+        return this.count[i];
+    }
+
+    long maxValue() {
+        return this.maxValue;
+    }
+
+    /**
+     * sum of the orders of all values in [start, end). values beyond
+     * {@link #maxValue()} wrap around like {@link PAdicTuple#increment()}.
+     */
+    long sum(final long start, final long end) {
+        return prefix(end) - prefix(start);
+    }
+
+    /**
+     * sum of the orders of all values in [0, value).
+     */
+    long prefix(final long value) {
+        if (value >= this.maxValue) {
+            return (value / this.maxValue) * this.total
+                    + prefix(value % this.maxValue);
+        }
+        return prefix(value, this.n, 0);
+    }
+
+    /**
+     * sum of the orders of all values in [0, value) of the lowest digits
+     * digits, where the digits above contribute the alphabet mask.
+     */
+    long prefix(final long value, final int digits, long mask) {
+        long result = 0;
+        for (int i = digits - 1; i >= 0; i--) {
+            final int d = (int) (value / this.count[i] % this.radix[i]);
+            if (d > 0) {
+                result += d * free(i, mask);
+                final long[] avoid = this.avoid[i];
+                for (int c = 0; c < d; c++) {
+                    if ((mask & (1l << c)) == 0) {
+                        result += avoid[c];
+                    }
+                }
+            }
+            mask |= 1l << d;
+        }
+        return result;
+    }
+
+    /**
+     * sum of the orders of all values of the lowest i digits, where the digits
+     * above contribute the alphabet mask.
+     */
+    long free(final int i, final long mask) {
+        long missing = 0;
+        final long[] avoid = this.avoid[i];
+        for (int c = 0; c < this.base; c++) {
+            if ((mask & (1l << c)) == 0) {
+                missing += avoid[c];
+            }
+        }
+        return this.base * this.count[i] - missing;
+    }
+}
@@ -1,41 +1,102 @@
 package de.saumya.fractals.padic;
 
+import java.util.Arrays;
+
 public class PAdicTuple {
 
-    private final PAdic[] tuple;
+    /** the digits, lowest first */
+    private final byte[]  digit;
+
+    /** radix[i] - 1, i.e. the largest value of digit i */
+    private final byte[]  top;
+
+    /** weight[i] = value of a one at digit i, weight[n] = maxValue */
+    private final long[]  weight;
+
+    /** bit offset of each digit when all radices are powers of two, else null */
+    private final int[]   shift;
+
+    /** occurrences of each digit value among the digits */
+    private final int[]   count;
+
+    /** number of distinct digit values, i.e. the order */
+    private int           distinct;
 
-    private final short[] orders;
+    /** the digit values present, i.e. the alphabet */
+    private long          mask;
 
     public PAdicTuple(final int n, final short s) {
         this(n, new short[] { s });
     }
 
     public PAdicTuple(final int n, final short... p) {
-        this.tuple = new PAdic[n * p.length];
+        final int digits = n * p.length;
+        this.digit = new byte[digits];
+        this.top = new byte[digits];
+        this.weight = new long[digits + 1];
         int max = 0;
+        boolean powerOfTwo = true;
         for (final int pp : p) {
+            // the alphabet of the digit values is kept as a long bit mask
+            if (pp > Long.SIZE) {
+                throw new IllegalArgumentException("radix too large: " + pp);
+            }
             max = pp > max ? pp : max;
+            powerOfTwo &= Integer.bitCount(pp) == 1;
         }
-        int cursor = 1 << max;
-        this.orders = new short[cursor];
-        while (--cursor >= 0) {
-            this.orders[cursor] = order(cursor, 32);
-        }
-        for (int i = 0; i < n * p.length;) {
-            for (final int pp : p) {
-                this.tuple[i++] = new PAdic(pp);
+        this.count = new int[max];
+        this.shift = powerOfTwo ? new int[digits] : null;
+        this.weight[0] = 1;
+        for (int i = 0; i < digits; i++) {
+            final int radix = p[i % p.length];
+            this.top[i] = (byte) (radix - 1);
+            this.weight[i + 1] = this.weight[i] * radix;
+            if (powerOfTwo) {
+                this.shift[i] = Long.numberOfTrailingZeros(this.weight[i]);
             }
         }
+        count();
+    }
+
+    private PAdicTuple(final PAdicTuple tuple) {
+        this.top = tuple.top;
+        this.weight = tuple.weight;
+        this.shift = tuple.shift;
+        this.digit = new byte[tuple.digit.length];
+        this.count = new int[tuple.count.length];
+        count();
+    }
+
+    int digits() {
+        return this.digit.length;
+    }
+
+    int radix(final int i) {
+        return this.top[i] + 1;
+    }
+
+    /**
+     * a new tuple over the same radices, positioned at zero.
+     */
+    PAdicTuple copy() {
+        return new PAdicTuple(this);
+    }
+
+    /**
+     * number of values of the lowest digits.
+     */
+    long blockSize(final int digits) {
+        return this.weight[digits];
     }
 
     long maxValue() {
-        return maxValue(0, 1);
+        return this.weight[this.digit.length];
     }
 
     long maxValue(final int offset, final int dimension) {
         long result = 1;
-        for (int i = offset; i < this.tuple.length; i += dimension) {
-            result *= this.tuple[i].p();
+        for (int i = offset; i < this.digit.length; i += dimension) {
+            result *= this.top[i] + 1;
         }
         return result;
     }
@@ -49,69 +110,167 @@ public class PAdicTuple {
     }
 
     long value() {
-        return value(0, 1);
+        long result = 0;
+        for (int i = 0; i < this.digit.length; i++) {
+            result += this.weight[i] * this.digit[i];
+        }
+        return result;
     }
 
     void set(long value) {
-        for (int i = 0; i < this.tuple.length; i++) {
-            this.tuple[i].q = (int) value % this.tuple[i].p();
-            value /= this.tuple[i].p();
+        final int n = this.digit.length;
+        if (this.shift != null) {
+            for (int i = 0; i < n; i++) {
+                this.digit[i] = (byte) ((value >>> this.shift[i]) & this.top[i]);
+            }
+            count();
+            return;
+        }
+        int i = 0;
+        // long divisions only while the value does not fit into an int
+        for (; i < n && value > Integer.MAX_VALUE; i++) {
+            final int radix = this.top[i] + 1;
+            this.digit[i] = (byte) (value % radix);
+            value /= radix;
         }
+        int rest = (int) value;
+        for (; i < n; i++) {
+            final int radix = this.top[i] + 1;
+            this.digit[i] = (byte) (rest % radix);
+            rest /= radix;
+        }
+        count();
+    }
+
+    /**
+     * recounts the digit values after the digits changed wholesale.
+     */
+    private void count() {
+        Arrays.fill(this.count, 0);
+        this.distinct = 0;
+        this.mask = 0;
+        for (final byte q : this.digit) {
+            if (this.count[q]++ == 0) {
+                this.distinct++;
+                this.mask |= 1l << q;
+            }
+        }
+    }
+
+    /**
+     * sets digit i to q and keeps the counts up to date.
+     */
+    private void change(final int i, final int q) {
+        final int old = this.digit[i];
+        if (--this.count[old] == 0) {
+            this.distinct--;
+            this.mask &= ~(1l << old);
+        }
+        if (this.count[q]++ == 0) {
+            this.distinct++;
+            this.mask |= 1l << q;
+        }
+        this.digit[i] = (byte) q;
+    }
+
+    /**
+     * sets digit i to q.
+     */
+    void set(final int i, final int q) {
+        change(i, q);
     }
 
     long value(final int offset, final int dimension) {
         long base = 1l;
         long result = 0;
-        for (int i = offset; i < this.tuple.length; i += dimension) {
-            result += base * this.tuple[i].q;
-            base *= this.tuple[i].p();
+        for (int i = offset; i < this.digit.length; i += dimension) {
+            result += base * this.digit[i];
+            base *= this.top[i] + 1;
         }
         return result;
     }
 
     boolean increment() {
-        final int n = this.tuple.length;
+        final byte[] digit = this.digit;
+        final int n = digit.length;
         for (int i = 0; i < n; i++) {
-            if (increment(i)) {
+            if (digit[i] != this.top[i]) {
+                change(i, digit[i] + 1);
                 return true;
             }
+            change(i, 0);
         }
         return false;
     }
 
     boolean increment(final int i) {
-        return this.tuple[i].increment();
+        if (this.digit[i] == this.top[i]) {
+            change(i, 0);
+            return false;
+        }
+        else {
+            change(i, this.digit[i] + 1);
+            return true;
+        }
     }
 
-    long alphabet() {
-        long mask = 0l;
-        for (final PAdic p : this.tuple) {
-            mask |= 1 << p.q;
+    boolean decrement() {
+        final byte[] digit = this.digit;
+        final int n = digit.length;
+        for (int i = 0; i < n; i++) {
+            if (digit[i] != 0) {
+                change(i, digit[i] - 1);
+                return true;
+            }
+            change(i, this.top[i]);
         }
-        return mask;
+        return false;
+    }
+
+    long alphabet() {
+        return this.mask;
     }
 
     short order() {
-        return this.orders[(int) alphabet()];
+        return (short) this.distinct;
     }
 
-    private short order(final long mask, final int digits) {
-        short order = 0;
-        long cursor = 1l << digits;
-        while (cursor != 0) {
-            if ((mask & cursor) != 0) {
-                order++;
+    /**
+     * writes the orders of the current and the following values into out and
+     * advances the tuple by length values. the lowest digit is swept in runs
+     * against the fixed alphabet of the digits above, so the inner loop is
+     * branch free and allocation free.
+     */
+    void orders(final int[] out, int offset, int length) {
+        final int top = this.top[0];
+        while (length > 0) {
+            final int low = this.digit[0];
+            final long high = this.count[low] == 1
+                    ? this.mask & ~(1l << low)
+                    : this.mask;
+            final int distinct = Long.bitCount(high);
+            final long absent = ~high >>> low;
+            final int run = length < top - low + 1 ? length : top - low + 1;
+            for (int k = 0; k < run; k++) {
+                out[offset + k] = distinct + (int) ((absent >>> k) & 1);
+            }
+            offset += run;
+            length -= run;
+            if (low + run > top) {
+                change(0, top);
+                increment();
+            }
+            else {
+                change(0, low + run);
             }
-            cursor >>= 1;
         }
-        return order;
     }
 
     @Override
     public String toString() {
         final StringBuilder buf = new StringBuilder("[");
-        for (final PAdic p : this.tuple) {
-            buf.append(p.q).append(",");
+        for (final byte q : this.digit) {
+            buf.append(q).append(",");
         }
         buf.deleteCharAt(buf.length() - 1);
         buf.append("]");
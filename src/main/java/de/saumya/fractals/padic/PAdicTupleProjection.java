@@ -5,23 +5,38 @@ package de.saumya.fractals.padic;
 
 class PAdicTupleProjection {
 
-    private final int len;
-    final PAdicTuple  tuple;
+    private final int     len;
+    private final int     walk;
+    final PAdicTuple      tuple;
+    final PAdicOrderIndex index;
 
-    long              maxValue;
+    long                  maxValue;
 
-    private long      cursor;
-    double            step;
-    private double    position;
-    private long      start;
-    private long      end;
+    private long          cursor;
+    double                step;
+    private double        position;
+    private long          start;
+    private long          end;
+    private boolean       aligned;
+    private long          prefixValue;
+    private long          prefix;
 
     PAdicTupleProjection(final PAdicTuple tuple, final int len) {
         this.len = len;
         this.tuple = tuple;
+        this.index = PAdicOrderIndex.of(tuple);
+        // below this range length walking the tuple beats the digit sums
+        this.walk = this.index.isFlat() ? 0 : this.index.sums.base();
         setup(0, tuple.maxValue());
     }
 
+    /**
+     * a new projection of the same length over a copy of the tuple.
+     */
+    PAdicTupleProjection copy() {
+        return new PAdicTupleProjection(this.tuple.copy(), this.len);
+    }
+
     void setup(final long startValue, final long endValue) {
         this.tuple.set(startValue);
         this.maxValue = endValue;
@@ -30,6 +45,8 @@ class PAdicTupleProjection {
         this.end = endValue;
         this.cursor = 0;
         this.position = 0.;
+        this.aligned = true;
+        this.prefixValue = -1;
     }
 
     void reset() {
@@ -50,6 +67,21 @@ class PAdicTupleProjection {
         this.position += this.step;
         final long next = Math.round(this.position);
         final long diff = next - this.cursor;
+        if (diff > this.walk) {
+            final long from = this.start + this.cursor;
+            final long to = this.start + next;
+            if (this.prefixValue != from) {
+                this.prefix = this.index.prefix(from);
+            }
+            final long prefix = this.index.prefix(to);
+            result = prefix - this.prefix;
+            this.prefix = prefix;
+            this.prefixValue = to;
+            this.cursor = next;
+            this.aligned = false;
+            return result / diff;
+        }
+        align();
         for (; this.cursor < next; this.cursor++) {
             result += this.tuple.order();
             this.tuple.increment();
@@ -62,10 +94,18 @@ class PAdicTupleProjection {
         this.position += this.step;
         final long next = Math.round(this.position);
         final long diff = next - this.cursor;
+        align();
         for (; this.cursor < next; this.cursor++) {
             result += this.tuple.alphabet();
             this.tuple.increment();
         }
         return result / diff;
     }
+
+    private void align() {
+        if (!this.aligned) {
+            this.tuple.set(this.start + this.cursor);
+            this.aligned = true;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+public class AnimatedPngEncoderTest {
+
+    static final int WIDTH  = 300;
+
+    static final int HEIGHT = 30;
+
+    static final class Chunk {
+
+        final String type;
+
+        final byte[] data;
+
+        Chunk(final String type, final byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        int intAt(final int offset) {
+            return ((this.data[offset] & 0xff) << 24)
+                    | ((this.data[offset + 1] & 0xff) << 16)
+                    | ((this.data[offset + 2] & 0xff) << 8)
+                    | (this.data[offset + 3] & 0xff);
+        }
+    }
+
+    /**
+     * a gradient with some noise, with more than {@link PngWriter#FEW_COLORS}
+     * colors per row so rows get filtered, with a box which
+     * changes from frame to frame, the last frame repeats the one before.
+     */
+    static int[][] frames() {
+        final Random random = new Random(3);
+        final int[][] frames = new int[4][WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frames[0][y * WIDTH + x] = 0xff000000 | ((x & 0xff) << 16)
+                        | (y * 8 << 8) | random.nextInt(4);
+            }
+        }
+        for (int f = 1; f < 3; f++) {
+            frames[f] = frames[f - 1].clone();
+            for (int y = 5 * f; y < 5 * f + 7; y++) {
+                for (int x = 3 * f; x < 3 * f + 11; x++) {
+                    frames[f][y * WIDTH + x] = random.nextInt();
+                }
+            }
+        }
+        frames[3] = frames[2].clone();
+        return frames;
+    }
+
+    static List<Chunk> chunks(final byte[] png) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+        final byte[] signature = new byte[8];
+        in.readFully(signature);
+        assertArrayEquals(PngWriter.SIGNATURE, signature);
+        final List<Chunk> chunks = new ArrayList<Chunk>();
+        while (in.available() > 0) {
+            final byte[] data = new byte[in.readInt()];
+            final byte[] type = new byte[4];
+            in.readFully(type);
+            in.readFully(data);
+            final CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(data);
+            assertEquals(crc.getValue(), in.readInt() & 0xffffffffl);
+            chunks.add(new Chunk(new String(type, "ISO-8859-1"), data));
+        }
+        return chunks;
+    }
+
+    /**
+     * inflates and unfilters the scanlines of a width x height image into
+     * ARGB pixels.
+     */
+    static int[] decode(final byte[] deflated, final int width,
+            final int height) throws DataFormatException {
+        final int length = PngWriter.scanlineLength(width);
+        final byte[] data = new byte[length * height];
+        final Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        assertEquals(data.length, inflater.inflate(data));
+        assertTrue(inflater.finished());
+        inflater.end();
+        final int bpp = PngWriter.BPP;
+        final byte[] prior = new byte[length - 1];
+        final byte[] row = new byte[length - 1];
+        final int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            final int type = data[y * length];
+            for (int i = 0; i < row.length; i++) {
+                final int x = data[y * length + 1 + i] & 0xff;
+                final int a = i < bpp ? 0 : row[i - bpp] & 0xff;
+                final int b = prior[i] & 0xff;
+                final int c = i < bpp ? 0 : prior[i - bpp] & 0xff;
+                switch (type) {
+                case PngWriter.NONE:
+                    row[i] = (byte) x;
+                    break;
+                case PngWriter.SUB:
+                    row[i] = (byte) (x + a);
+                    break;
+                case PngWriter.UP:
+                    row[i] = (byte) (x + b);
+                    break;
+                case PngWriter.AVERAGE:
+                    row[i] = (byte) (x + ((a + b) >>> 1));
+                    break;
+                case PngWriter.PAETH:
+                    row[i] = (byte) (x + PngWriter.paeth(a, b, c));
+                    break;
+                default:
+                    throw new AssertionError("filter type " + type);
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = ((row[4 * x + 3] & 0xff) << 24)
+                        | ((row[4 * x] & 0xff) << 16)
+                        | ((row[4 * x + 1] & 0xff) << 8)
+                        | (row[4 * x + 2] & 0xff);
+            }
+            System.arraycopy(row, 0, prior, 0, row.length);
+        }
+        return argb;
+    }
+
+    private byte[] encode(final int[][] frames, final int threads,
+            final boolean frameCount) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AnimatedPngEncoder encoder = new AnimatedPngEncoder(threads);
+        assertTrue(encoder.start(out));
+        encoder.setDelay(200);
+        if (frameCount) {
+            encoder.setFrameCount(frames.length);
+        }
+        for (final int[] frame : frames) {
+            assertTrue(encoder.addFrame(frame, WIDTH, HEIGHT));
+        }
+        assertTrue(encoder.finish());
+        return out.toByteArray();
+    }
+
+    /**
+     * checks the chunks and draws every frame over the one before, comparing
+     * it with the frame added.
+     */
+    private void assertAnimation(final int[][] frames, final byte[] png)
+            throws Exception {
+        final List<Chunk> chunks = chunks(png);
+        assertEquals("IHDR", chunks.get(0).type);
+        assertEquals(WIDTH, chunks.get(0).intAt(0));
+        assertEquals(HEIGHT, chunks.get(0).intAt(4));
+        assertEquals("acTL", chunks.get(1).type);
+        assertEquals(frames.length, chunks.get(1).intAt(0));
+        assertEquals(0, chunks.get(1).intAt(4));
+        assertEquals("IEND", chunks.get(chunks.size() - 1).type);
+
+        final int[] canvas = new int[WIDTH * HEIGHT];
+        int sequence = 0;
+        int frame = -1;
+        Chunk control = null;
+        ByteArrayOutputStream data = null;
+        for (final Chunk chunk : chunks.subList(2, chunks.size())) {
+            if (data != null && !chunk.type.equals("IDAT")
+                    && !chunk.type.equals("fdAT")) {
+                draw(control, data.toByteArray(), canvas);
+                assertArrayEquals("frame " + frame, frames[frame], canvas);
+                data = null;
+            }
+            if (chunk.type.equals("fcTL")) {
+                assertEquals(sequence++, chunk.intAt(0));
+                assertEquals(200, ((chunk.data[20] & 0xff) << 8)
+                        | (chunk.data[21] & 0xff));
+                control = chunk;
+                data = new ByteArrayOutputStream();
+                frame++;
+            }
+            else if (chunk.type.equals("IDAT")) {
+                assertEquals(0, frame);
+                data.write(chunk.data);
+            }
+            else if (chunk.type.equals("fdAT")) {
+                assertTrue(frame > 0);
+                assertEquals(sequence++, chunk.intAt(0));
+                data.write(chunk.data, 4, chunk.data.length - 4);
+            }
+        }
+        assertEquals(frames.length - 1, frame);
+    }
+
+    private void draw(final Chunk control, final byte[] deflated,
+            final int[] canvas) throws DataFormatException {
+        final int w = control.intAt(4);
+        final int h = control.intAt(8);
+        final int x = control.intAt(12);
+        final int y = control.intAt(16);
+        final int[] box = decode(deflated, w, h);
+        for (int i = 0; i < h; i++) {
+            System.arraycopy(box, i * w, canvas, (y + i) * WIDTH + x, w);
+        }
+    }
+
+    @Test
+    public void framesAsTheyCome() throws Exception {
+        final int[][] frames = frames();
+        assertAnimation(frames, encode(frames, 1, true));
+    }
+
+    @Test
+    public void framesKeptUntilFinish() throws Exception {
+        final int[][] frames = frames();
+        final byte[] png = encode(frames, 1, false);
+        assertAnimation(frames, png);
+        assertArrayEquals(encode(frames, 1, true), png);
+    }
+
+    @Test
+    public void parallel() throws Exception {
+        final int[][] frames = frames();
+        assertArrayEquals(encode(frames, 1, true), encode(frames, 3, true));
+        assertArrayEquals(encode(frames, 1, false), encode(frames, 3, false));
+    }
+
+    @Test
+    public void frameCountMismatch() throws Exception {
+        final int[][] frames = frames();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AnimatedPngEncoder encoder = new AnimatedPngEncoder();
+        encoder.start(out);
+        encoder.setFrameCount(2);
+        assertTrue(encoder.addFrame(frames[0], WIDTH, HEIGHT));
+        assertTrue(encoder.addFrame(frames[1], WIDTH, HEIGHT));
+        assertFalse(encoder.addFrame(frames[2], WIDTH, HEIGHT));
+        assertTrue(encoder.finish());
+
+        encoder.start(out);
+        encoder.setFrameCount(3);
+        assertTrue(encoder.addFrame(frames[0], WIDTH, HEIGHT));
+        assertFalse(encoder.finish());
+    }
+
+    @Test
+    public void filteredRows() throws Exception {
+        final List<Chunk> chunks = chunks(encode(frames(), 1, true));
+        final byte[] data = chunks.get(3).data;
+        final Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        final int length = PngWriter.scanlineLength(WIDTH);
+        final byte[] scanlines = new byte[length * HEIGHT];
+        inflater.inflate(scanlines);
+        inflater.end();
+        final boolean[] types = new boolean[5];
+        for (int y = 0; y < HEIGHT; y++) {
+            types[scanlines[y * length]] = true;
+        }
+        assertFalse(Arrays.equals(new boolean[] { true, false, false, false,
+                false }, types));
+    }
+}
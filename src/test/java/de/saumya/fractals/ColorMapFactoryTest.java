@@ -0,0 +1,102 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.junit.Test;
+
+public class ColorMapFactoryTest {
+
+    private final ColorMapFactory factory = new ColorMapFactory();
+
+    static int[] rgb(final Color[] colors) {
+        final int[] argb = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            argb[i] = colors[i].getRGB();
+        }
+        return argb;
+    }
+
+    @Test
+    public void argbMapsAsTheColorMaps() {
+        for (int mask = 0; mask < 8; mask++) {
+            final boolean red = (mask & 4) != 0;
+            final boolean green = (mask & 2) != 0;
+            final boolean blue = (mask & 1) != 0;
+            assertArrayEquals(rgb(this.factory.map(red, green, blue)),
+                              this.factory.argbMap(red, green, blue));
+            assertArrayEquals(rgb(this.factory.mapInvers(red, green, blue)),
+                              this.factory.argbMapInvers(red, green, blue));
+        }
+    }
+
+    @Test
+    public void cached() {
+        assertSame(this.factory.argbMap(true, false, true),
+                   new ColorMapFactory().argbMap(true, false, true));
+        assertSame(this.factory.gradient(7, 0xff000000, 0xff00ff00),
+                   this.factory.gradient(7, 0xff000000, 0xff00ff00));
+    }
+
+    @Test
+    public void smallTables() {
+        assertArrayEquals(new int[] { 0xff000000 },
+                          this.factory.gradient(1, 0xff000000, 0xffffffff));
+        assertArrayEquals(new int[] { 0xff102030 },
+                          this.factory.gradient(1, 0xff102030));
+        assertArrayEquals(new int[] { 0xff102030 },
+                          this.factory.gradient(1,
+                                                0xff102030,
+                                                0xff000000,
+                                                0xffffffff));
+        assertArrayEquals(new int[] { 0xff000000, 0xffffffff },
+                          this.factory.gradient(2, 0xff000000, 0xffffffff));
+        assertArrayEquals(new int[] { 0x80102030, 0x80102030 },
+                          this.factory.gradient(2, 0x80102030));
+        assertArrayEquals(new int[] { 0xff000000, 0xffffffff },
+                          this.factory.gradient(2,
+                                                0xff000000,
+                                                0xff00ff00,
+                                                0xffffffff));
+        assertEquals(0, this.factory.gradient(0, 0xff000000).length);
+    }
+
+    @Test
+    public void multipleStops() {
+        assertArrayEquals(new int[] { 0xff000000, 0xff7f0000, 0xffff0000,
+                0xffff7f7f, 0xffffffff }, this.factory.gradient(5,
+                                                                0xff000000,
+                                                                0xffff0000,
+                                                                0xffffffff));
+        final int[] stops = { 0x00000000, 0xff0000ff, 0xff00ff00, 0x80ff0000 };
+        final int[] gradient = this.factory.gradient(256, stops);
+        assertEquals(256, gradient.length);
+        // the stops fall on 0, 85, 170 and 255
+        for (int k = 0; k < stops.length; k++) {
+            assertEquals(stops[k], gradient[85 * k]);
+        }
+        // every channel runs between its stops
+        for (int i = 0; i < 255; i++) {
+            final int from = stops[i / 85];
+            final int to = stops[i / 85 + 1];
+            for (int shift = 0; shift < 32; shift += 8) {
+                final int a = (from >>> shift) & 0xff;
+                final int b = (to >>> shift) & 0xff;
+                final int c = (gradient[i] >>> shift) & 0xff;
+                assertTrue(c >= Math.min(a, b) && c <= Math.max(a, b));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noStops() {
+        this.factory.gradient(4);
+    }
+}
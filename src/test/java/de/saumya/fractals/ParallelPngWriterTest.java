@@ -0,0 +1,126 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import de.saumya.fractals.AnimatedPngEncoderTest.Chunk;
+
+public class ParallelPngWriterTest {
+
+    /**
+     * the upper half with noise on a gradient, so its rows get filtered, the
+     * lower half with a few colors only.
+     */
+    static int[] pixels(final int width, final int height) {
+        final Random random = new Random(5);
+        final int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = y < height / 2
+                        ? (0x80 + (x + y) % 0x80 << 24) | ((x & 0xff) << 16)
+                                | ((y & 0xff) << 8) | random.nextInt(8)
+                        : 0xff000000 | Integer.bitCount(x & y) * 0x1f1f1f;
+            }
+        }
+        return argb;
+    }
+
+    static byte[] write(final int[] argb, final int width, final int height,
+            final int threads) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PngWriter png = threads > 1
+                ? new ParallelPngWriter(out, width, height, threads)
+                : new PngWriter(out, width, height);
+        // bands which do not line up with the segments
+        for (int y = 0; y < height; y += 37) {
+            png.writeRows(argb, y * width, Math.min(37, height - y));
+        }
+        png.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * the concatenated IDAT data inflated by a zlib inflater, which checks
+     * the adler32 at the end.
+     */
+    static byte[] inflate(final byte[] png, final int width, final int height)
+            throws Exception {
+        final ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        for (final Chunk chunk : AnimatedPngEncoderTest.chunks(png)) {
+            if (chunk.type.equals("IDAT")) {
+                assertTrue(chunk.data.length <= PngWriter.CHUNK_SIZE);
+                idat.write(chunk.data);
+            }
+        }
+        final byte[] data = new byte[PngWriter.scanlineLength(width) * height];
+        final Inflater inflater = new Inflater();
+        inflater.setInput(idat.toByteArray());
+        assertEquals(data.length, inflater.inflate(data));
+        assertTrue(inflater.finished());
+        assertEquals(0, inflater.getRemaining());
+        final Adler32 adler = new Adler32();
+        adler.update(data);
+        assertEquals(adler.getValue(), inflater.getAdler() & 0xffffffffl);
+        inflater.end();
+        return data;
+    }
+
+    private void assertRoundTrip(final int width, final int height)
+            throws Exception {
+        final int[] argb = pixels(width, height);
+        final byte[] sequential = write(argb, width, height, 1);
+        final byte[] parallel = write(argb, width, height, 3);
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(parallel));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        assertArrayEquals(argb,
+                          image.getRGB(0, 0, width, height, null, 0, width));
+        assertArrayEquals(ImageIO.read(new ByteArrayInputStream(sequential))
+                .getRGB(0, 0, width, height, null, 0, width), image.getRGB(0,
+                                                                           0,
+                                                                           width,
+                                                                           height,
+                                                                           null,
+                                                                           0,
+                                                                           width));
+
+        // the same filtered scanlines, only deflated differently
+        assertArrayEquals(inflate(sequential, width, height),
+                          inflate(parallel, width, height));
+    }
+
+    @Test
+    public void manySegments() throws Exception {
+        assertTrue(PngWriter.scanlineLength(700) * 500 > 8 * ParallelPngWriter.SEGMENT);
+        assertRoundTrip(700, 500);
+    }
+
+    @Test
+    public void oneSegment() throws Exception {
+        assertRoundTrip(300, 20);
+        assertRoundTrip(1, 1);
+    }
+
+    @Test
+    public void rowsLongerThanASegment() throws Exception {
+        assertTrue(PngWriter.scanlineLength(40000) > ParallelPngWriter.SEGMENT);
+        assertRoundTrip(40000, 4);
+    }
+}
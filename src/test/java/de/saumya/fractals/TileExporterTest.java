@@ -0,0 +1,135 @@
+/**
+ * 
+ */
+package de.saumya.fractals;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TileExporterTest {
+
+    /** every pixel holds its own coordinates */
+    static int[] pixels(final int width, final int height) {
+        final int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = (y << 16) | x;
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * checks that the tiles come in order, row of tiles by row of tiles, each
+     * with the pixels of its place in the frame.
+     */
+    static final class Checker implements TileExporter.TileWriter<int[]> {
+
+        final int           width;
+
+        final int           tileWidth;
+
+        final int           tileHeight;
+
+        final List<Integer> written = new ArrayList<Integer>();
+
+        Checker(final int width, final int tileWidth, final int tileHeight) {
+            this.width = width;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+        }
+
+        public int[] encode(final int index, final BufferedImage tile) {
+            assertEquals(this.tileWidth, tile.getWidth());
+            assertEquals(this.tileHeight, tile.getHeight());
+            return TileExporter.pixels(tile);
+        }
+
+        public void write(final int index, final int[] tile) {
+            assertEquals(this.written.size(), index);
+            this.written.add(index);
+            final int columns = this.width / this.tileWidth;
+            final int x = index % columns * this.tileWidth;
+            final int y = index / columns * this.tileHeight;
+            final int[] expected = new int[this.tileWidth * this.tileHeight];
+            for (int i = 0; i < this.tileHeight; i++) {
+                for (int j = 0; j < this.tileWidth; j++) {
+                    expected[i * this.tileWidth + j] = ((y + i) << 16) | (x + j);
+                }
+            }
+            assertArrayEquals("tile " + index, expected, tile);
+        }
+    }
+
+    private void assertTiles(final int width, final int height,
+            final int tileWidth, final int tileHeight, final int threads)
+            throws IOException {
+        final Checker checker = new Checker(width, tileWidth, tileHeight);
+        final int count = new TileExporter(tileWidth, tileHeight, threads).export(pixels(width,
+                                                                                         height),
+                                                                                  width,
+                                                                                  height,
+                                                                                  checker);
+        assertEquals((width / tileWidth) * (height / tileHeight), count);
+        assertEquals(count, checker.written.size());
+    }
+
+    @Test
+    public void wholeTiles() throws IOException {
+        assertTiles(64, 32, 16, 8, 1);
+        assertTiles(64, 32, 16, 8, 3);
+        assertTiles(64, 32, 64, 32, 2);
+    }
+
+    @Test
+    public void edgesAreDropped() throws IOException {
+        assertTiles(70, 37, 16, 8, 1);
+        assertTiles(70, 37, 16, 8, 3);
+        assertTiles(15, 37, 16, 8, 2);
+    }
+
+    @Test
+    public void moreTilesThanTheWindow() throws IOException {
+        assertTiles(200, 100, 10, 10, 2);
+    }
+
+    @Test
+    public void failuresOfTheWorkers() {
+        final IOException failure = new IOException("encode");
+        try {
+            new TileExporter(8, 8, 2).export(new int[64 * 64],
+                                             64,
+                                             64,
+                                             new TileExporter.TileWriter<Object>() {
+
+                                                 public Object encode(
+                                                         final int index,
+                                                         final BufferedImage tile)
+                                                         throws IOException {
+                                                     if (index == 5) {
+                                                         throw failure;
+                                                     }
+                                                     return tile;
+                                                 }
+
+                                                 public void write(
+                                                         final int index,
+                                                         final Object encoded) {
+                                                 }
+                                             });
+            fail("no exception");
+        }
+        catch (final IOException e) {
+            assertSame(failure, e);
+        }
+    }
+}
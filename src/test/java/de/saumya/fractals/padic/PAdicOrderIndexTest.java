@@ -0,0 +1,51 @@
+/**
+ * 
+ */
+package de.saumya.fractals.padic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PAdicOrderIndexTest {
+
+    private void assertPrefixes(final PAdicTuple tuple, final boolean flat) {
+        final long[] expected = PAdicOrderSumTest.bruteForce(tuple.copy());
+        final PAdicOrderIndex index = new PAdicOrderIndex(new PAdicOrderSum(tuple));
+        assertEquals(flat, index.isFlat());
+        final int max = expected.length - 1;
+        for (int v = 0; v <= max; v++) {
+            if (expected[v] != index.prefix(v)) {
+                assertEquals(tuple + " prefix " + v, expected[v], index.prefix(v));
+            }
+        }
+        assertEquals(2 * expected[max] + expected[max / 5],
+                     index.prefix(2l * max + max / 5));
+        assertEquals(expected[max - 3] - expected[17], index.sum(17, max - 3));
+    }
+
+    @Test
+    public void flatTable() {
+        assertPrefixes(new PAdicTuple(6, (short) 5), true);
+        assertPrefixes(new PAdicTuple(4, new short[] { 4, 2 }), true);
+    }
+
+    @Test
+    public void blocksOfLowestDigits() {
+        assertTrue(1l << 21 > PAdicOrderIndex.MAX_ENTRIES);
+        assertPrefixes(new PAdicTuple(21, (short) 2), false);
+        assertPrefixes(new PAdicTuple(7, new short[] { 4, 2 }), false);
+        assertPrefixes(new PAdicTuple(9, (short) 5), false);
+    }
+
+    @Test
+    public void sharedPerRadices() {
+        final PAdicOrderIndex index = PAdicOrderIndex.of(new PAdicTuple(5,
+                (short) 3));
+        assertSame(index, PAdicOrderIndex.of(new PAdicTuple(5, (short) 3)));
+        assertFalse(index == PAdicOrderIndex.of(new PAdicTuple(6, (short) 3)));
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * 
+ */
+package de.saumya.fractals.padic;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PAdicOrderSumTest {
+
+    /**
+     * prefix[v] = sum of the orders of [0, v), walking every value.
+     */
+    static long[] bruteForce(final PAdicTuple tuple) {
+        final long[] prefix = new long[(int) tuple.maxValue() + 1];
+        tuple.set(0);
+        for (int v = 0; v < tuple.maxValue(); v++) {
+            prefix[v + 1] = prefix[v] + tuple.order();
+            tuple.increment();
+        }
+        return prefix;
+    }
+
+    private void assertPrefixes(final PAdicTuple tuple) {
+        final long[] expected = bruteForce(tuple.copy());
+        final PAdicOrderSum sums = new PAdicOrderSum(tuple);
+        final int max = expected.length - 1;
+        for (int v = 0; v <= max; v++) {
+            assertEquals(tuple + " prefix " + v, expected[v], sums.prefix(v));
+        }
+        // beyond the maximum value the values wrap around
+        assertEquals(3 * expected[max] + expected[max / 3],
+                     sums.prefix(3l * max + max / 3));
+    }
+
+    @Test
+    public void prefixSingleRadix() {
+        for (short p = 2; p <= 5; p++) {
+            for (int n = 1; n <= 5; n++) {
+                assertPrefixes(new PAdicTuple(n, p));
+            }
+        }
+    }
+
+    @Test
+    public void prefixMixedRadix() {
+        assertPrefixes(new PAdicTuple(4, new short[] { 4, 2 }));
+        assertPrefixes(new PAdicTuple(3, new short[] { 3, 2, 5 }));
+        assertPrefixes(new PAdicTuple(6, new short[] { 2, 3 }));
+    }
+
+    @Test
+    public void sumOverRanges() {
+        final PAdicTuple tuple = new PAdicTuple(5, (short) 3);
+        final long[] expected = bruteForce(tuple.copy());
+        final PAdicOrderSum sums = new PAdicOrderSum(tuple);
+        for (int start = 0; start < expected.length; start += 7) {
+            for (int end = start; end < expected.length; end += 11) {
+                assertEquals(expected[end] - expected[start],
+                             sums.sum(start, end));
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * 
+ */
+package de.saumya.fractals.padic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PAdicTupleTest {
+
+    /**
+     * the digits of value, lowest first, by division.
+     */
+    static int[] digits(long value, final int n, final short... p) {
+        final int[] digits = new int[n * p.length];
+        for (int i = 0; i < digits.length; i++) {
+            final int radix = p[i % p.length];
+            digits[i] = (int) (value % radix);
+            value /= radix;
+        }
+        return digits;
+    }
+
+    static String toString(final int[] digits) {
+        final StringBuilder buf = new StringBuilder("[");
+        for (int i = 0; i < digits.length; i++) {
+            buf.append(i == 0 ? "" : ",").append(digits[i]);
+        }
+        return buf.append("]").toString();
+    }
+
+    /**
+     * the digit values present as bit mask.
+     */
+    static long alphabet(final int[] digits) {
+        long mask = 0;
+        for (final int q : digits) {
+            mask |= 1l << q;
+        }
+        return mask;
+    }
+
+    /**
+     * the order as the number of distinct digit values.
+     */
+    static int order(final int[] digits) {
+        return Long.bitCount(alphabet(digits));
+    }
+
+    static long pow(final int n, final short... p) {
+        long max = 1;
+        for (int i = 0; i < n * p.length; i++) {
+            max *= p[i % p.length];
+        }
+        return max;
+    }
+
+    private void assertDigits(final PAdicTuple tuple, final long value,
+            final int n, final short... p) {
+        assertEquals("value " + value,
+                     toString(digits(value, n, p)),
+                     tuple.toString());
+        assertEquals(value, tuple.value());
+    }
+
+    private void assertCounts(final PAdicTuple tuple, final long value,
+            final int n, final short... p) {
+        assertDigits(tuple, value, n, p);
+        final int[] digits = digits(value, n, p);
+        assertEquals("order of " + value, order(digits), tuple.order());
+        assertEquals("alphabet of " + value,
+                     alphabet(digits),
+                     tuple.alphabet());
+    }
+
+    private void assertIncrements(final int n, final short... p) {
+        final long max = pow(n, p);
+        final PAdicTuple tuple = new PAdicTuple(n, p);
+        final Random random = new Random(max);
+        for (int k = 0; k < 20; k++) {
+            final long start = k == 0 ? 0 : (random.nextLong() >>> 1) % max;
+            tuple.set(start);
+            assertCounts(tuple, start, n, p);
+            final int steps = 500;
+            for (int i = 1; i <= steps; i++) {
+                // false exactly when wrapping around to zero
+                assertEquals((start + i) % max != 0, tuple.increment());
+                assertCounts(tuple, (start + i) % max, n, p);
+            }
+            for (int i = steps - 1; i >= 0; i--) {
+                assertEquals((start + i + 1) % max != 0, tuple.decrement());
+                assertCounts(tuple, (start + i) % max, n, p);
+            }
+        }
+    }
+
+    private void assertSet(final int n, final short... p) {
+        final long max = pow(n, p);
+        final PAdicTuple tuple = new PAdicTuple(n, p);
+        assertEquals(max, tuple.maxValue());
+        final Random random = new Random(n);
+        final long[] values = { 0, 1, max / 2, max - 1,
+                Integer.MAX_VALUE % max, (Integer.MAX_VALUE + 1l) % max };
+        for (final long value : values) {
+            tuple.set(value);
+            assertDigits(tuple, value, n, p);
+        }
+        for (int k = 0; k < 1000; k++) {
+            final long value = (random.nextLong() >>> 1) % max;
+            tuple.set(value);
+            assertDigits(tuple, value, n, p);
+        }
+    }
+
+    @Test
+    public void setPowersOfTwo() {
+        assertSet(5, (short) 2);
+        assertSet(4, new short[] { 4, 2 });
+        // beyond an int, on the shift path
+        assertSet(40, (short) 2);
+        assertSet(14, new short[] { 4, 2 });
+        assertSet(20, (short) 8);
+    }
+
+    @Test
+    public void setOtherRadices() {
+        assertSet(6, (short) 3);
+        assertSet(3, new short[] { 3, 2, 5 });
+        // beyond an int, long divisions first and int divisions after
+        assertTrue(pow(30, (short) 3) > Integer.MAX_VALUE);
+        assertSet(30, (short) 3);
+        assertSet(20, (short) 5);
+        assertSet(8, new short[] { 3, 2, 5 });
+        assertSet(18, new short[] { 4, 3 });
+    }
+
+    @Test
+    public void coordinates() {
+        final short[] p = { 3, 2 };
+        final PAdicTuple tuple = new PAdicTuple(5, p);
+        assertEquals(243, tuple.maxValue(0, 2));
+        assertEquals(32, tuple.maxValue(1, 2));
+        for (long value = 0; value < tuple.maxValue(); value += 97) {
+            tuple.set(value);
+            final int[] digits = digits(value, 5, p);
+            long x = 0;
+            long y = 0;
+            for (int i = digits.length - 2; i >= 0; i -= 2) {
+                x = 3 * x + digits[i];
+                y = 2 * y + digits[i + 1];
+            }
+            assertEquals(x, tuple.xValue());
+            assertEquals(y, tuple.yValue());
+        }
+    }
+
+    @Test
+    public void copyIsAtZero() {
+        final short[] p = { 3, 2, 5 };
+        final PAdicTuple tuple = new PAdicTuple(4, p);
+        tuple.set(12345);
+        final PAdicTuple copy = tuple.copy();
+        assertDigits(copy, 0, 4, p);
+        assertEquals(1, copy.order());
+        assertEquals(tuple.maxValue(), copy.maxValue());
+        copy.set(777);
+        assertDigits(tuple, 12345, 4, p);
+        assertDigits(copy, 777, 4, p);
+    }
+
+    /**
+     * orders(out, offset, length) from start against stepping with order()
+     * and increment(), including where the tuple ends up.
+     */
+    private void assertOrders(final long start, final int offset,
+            final int length, final int n, final short... p) {
+        final PAdicTuple tuple = new PAdicTuple(n, p);
+        final PAdicTuple stepped = tuple.copy();
+        tuple.set(start);
+        stepped.set(start);
+        final int[] expected = new int[offset + length + 3];
+        final int[] out = new int[expected.length];
+        expected[0] = out[0] = -1;
+        expected[expected.length - 1] = out[out.length - 1] = -1;
+        for (int i = offset; i < offset + length; i++) {
+            expected[i] = stepped.order();
+            stepped.increment();
+        }
+        tuple.orders(out, offset, length);
+        assertArrayEquals(expected, out);
+        assertEquals(stepped.toString(), tuple.toString());
+        assertEquals(stepped.order(), tuple.order());
+        assertEquals(stepped.alphabet(), tuple.alphabet());
+    }
+
+    @Test
+    public void ordersInRuns() {
+        // within one sweep of the lowest digit, and clipped at its top
+        assertOrders(0, 1, 1, 4, (short) 5);
+        assertOrders(2, 1, 2, 4, (short) 5);
+        assertOrders(2, 1, 3, 4, (short) 5);
+        // across several sweeps with carries into the higher digits
+        assertOrders(0, 0, 100, 4, (short) 5);
+        assertOrders(3, 2, 97, 4, (short) 5);
+        assertOrders(1, 3, 200, 7, (short) 2);
+        assertOrders(0, 1, 300, 3, new short[] { 4, 2 });
+        assertOrders(13, 2, 250, 3, new short[] { 4, 2 });
+        assertOrders(0, 1, 500, 2, new short[] { 3, 2, 5 });
+        assertOrders(29, 5, 444, 2, new short[] { 3, 2, 5 });
+    }
+
+    @Test
+    public void ordersFromRandomStarts() {
+        final Random random = new Random(8);
+        final short[][] radices = { { 3 }, { 7 }, { 4, 2 }, { 3, 2, 5 },
+                { 2, 4 } };
+        for (int k = 0; k < 200; k++) {
+            final short[] p = radices[k % radices.length];
+            final int n = 3;
+            final long start = random.nextInt((int) pow(n, p));
+            assertOrders(start,
+                         random.nextInt(4),
+                         1 + random.nextInt(150),
+                         n,
+                         p);
+        }
+    }
+
+    @Test
+    public void ordersWrapAround() {
+        // the run passes maxValue and goes on from zero
+        assertOrders(pow(3, (short) 5) - 7, 1, 30, 3, (short) 5);
+        assertOrders(pow(2, new short[] { 3, 2, 5 }) - 4,
+                     2,
+                     2 * 900 + 11,
+                     2,
+                     new short[] { 3, 2, 5 });
+    }
+
+    @Test
+    public void orderAfterSet() {
+        final short[] p = { 3, 2, 5 };
+        final PAdicTuple tuple = new PAdicTuple(6, p);
+        final Random random = new Random(6);
+        for (int k = 0; k < 1000; k++) {
+            final long value = (random.nextLong() >>> 1) % tuple.maxValue();
+            tuple.set(value);
+            assertCounts(tuple, value, 6, p);
+        }
+    }
+
+    @Test
+    public void incrementAndDecrement() {
+        assertIncrements(4, (short) 2);
+        assertIncrements(5, (short) 3);
+        assertIncrements(3, new short[] { 4, 2 });
+        assertIncrements(2, new short[] { 3, 2, 5 });
+        assertIncrements(30, (short) 3);
+    }
+
+    @Test
+    public void wrapAround() {
+        final short[] p = { 3, 2 };
+        final PAdicTuple tuple = new PAdicTuple(3, p);
+        final long max = tuple.maxValue();
+        tuple.set(max - 1);
+        assertFalse(tuple.increment());
+        assertCounts(tuple, 0, 3, p);
+        assertFalse(tuple.decrement());
+        assertCounts(tuple, max - 1, 3, p);
+        assertTrue(tuple.decrement());
+        assertCounts(tuple, max - 2, 3, p);
+    }
+
+    @Test
+    public void singleDigits() {
+        final short[] p = { 4, 3 };
+        final PAdicTuple tuple = new PAdicTuple(3, p);
+        final int[] digits = new int[tuple.digits()];
+        final Random random = new Random(7);
+        for (int k = 0; k < 1000; k++) {
+            final int i = random.nextInt(digits.length);
+            if (random.nextBoolean()) {
+                final int q = random.nextInt(tuple.radix(i));
+                tuple.set(i, q);
+                digits[i] = q;
+            }
+            else {
+                final boolean carry = digits[i] == tuple.radix(i) - 1;
+                assertEquals(!carry, tuple.increment(i));
+                digits[i] = carry ? 0 : digits[i] + 1;
+            }
+            assertEquals(toString(digits), tuple.toString());
+            assertEquals(order(digits), tuple.order());
+            assertEquals(alphabet(digits), tuple.alphabet());
+        }
+    }
+}